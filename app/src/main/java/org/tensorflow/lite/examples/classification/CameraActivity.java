@@ -77,8 +77,9 @@ import static android.speech.tts.TextToSpeech.ERROR;
 import android.os.Vibrator;
 
 import org.tensorflow.lite.examples.classification.customview.OverlayView;
-import org.tensorflow.lite.examples.classification.env.ImageUtils;
+import org.tensorflow.lite.examples.classification.env.FramePipeline;
 import org.tensorflow.lite.examples.classification.env.Logger;
+import org.tensorflow.lite.examples.classification.env.Yuv420Converter;
 import org.tensorflow.lite.examples.classification.tflite.Classifier_Midas.Device;
 import org.tensorflow.lite.examples.classification.tflite.Classifier_Midas.Model;
 import org.tensorflow.lite.examples.classification.tflite.Classifier_Midas.Recognition;
@@ -93,17 +94,21 @@ public abstract class CameraActivity extends AppCompatActivity
 
   private static final int PERMISSIONS_REQUEST = 1;
   private static final String PERMISSION_CAMERA = Manifest.permission.CAMERA;
+  private static final int CONVERTER_THREADS =
+      Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 4));
   protected int previewWidth = 0;
   protected int previewHeight = 0;
   protected Handler handler;
   private HandlerThread handlerThread;
   private boolean useCamera2API;
-  private boolean isProcessingFrame = false;
-  private byte[][] yuvBytes = new byte[3][];
+  /** Stages every camera frame goes through; frames are dropped while it has no free slot. */
+  private volatile FramePipeline<FrameSlot> framePipeline;
+  private long frameCount = 0;
+  // 변환 단계 전용 버퍼 (변환 스레드에서만 사용)
   private int[] rgbBytes = null;
-  private int yRowStride;
-  private Runnable postInferenceCallback;
-  private Runnable imageConverter;
+  /** Converts camera1 NV21 frames to rgbBytes; its first frame is checked against ImageUtils. */
+  private final Yuv420Converter yuvConverter = new Yuv420Converter(CONVERTER_THREADS);
+  private boolean yuvConverterChecked = false;
   private LinearLayout bottomSheetLayout;
   private LinearLayout gestureLayout;
   private BottomSheetBehavior<LinearLayout> sheetBehavior;
@@ -138,6 +143,9 @@ public abstract class CameraActivity extends AppCompatActivity
   protected ArrayList<String> modelStrings = new ArrayList<String>();
   private static final String ASSET_PATH = "";
   private boolean debug = false;
+  // 깊이 미리보기 그리기용 (UI 스레드 전용)
+  private final RectF previewRect = new RectF();
+  private final Paint previewPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
   protected int defaultModelIndex = 0;
   protected int defaultDeviceIndex = 1;
   ArrayList<String> deviceStrings = new ArrayList<String>();
@@ -152,9 +160,6 @@ public abstract class CameraActivity extends AppCompatActivity
   /** 진동 변수 생성 **/
   protected Vibrator vibrator;
 
-  ArrayList<DetectedObj> valid_objects = new ArrayList<>();
-  protected int idCnt = 0;
-
   @Override
   protected void onCreate(final Bundle savedInstanceState) {
     LOGGER.d("onCreate " + this);
@@ -334,62 +339,75 @@ public abstract class CameraActivity extends AppCompatActivity
     return res;
   }
 
-  protected int[] getRgbBytes() {
-    imageConverter.run();
-    return rgbBytes;
+  /** Installs the pipeline camera frames are submitted to, closing the previous one. */
+  protected void setFramePipeline(FramePipeline<FrameSlot> pipeline) {
+    final FramePipeline<FrameSlot> previous = framePipeline;
+    framePipeline = pipeline;
+    if (previous != null) {
+      previous.close();
+    }
   }
 
-  protected int getLuminanceStride() {
-    return yRowStride;
+  protected FramePipeline<FrameSlot> getFramePipeline() {
+    return framePipeline;
   }
 
-  protected byte[] getLuminance() {
-    return yuvBytes[0];
+  /**
+   * Convert stage for camera1: turns the captured NV21 frame of a slot into its ARGB bitmap.
+   * Camera2 frames skip this; their YUV planes are sampled directly.
+   */
+  protected void convertFrame(final FrameSlot slot) {
+    if (rgbBytes == null) {
+      rgbBytes = new int[previewWidth * previewHeight];
+    }
+    if (!yuvConverterChecked) {
+      yuvConverterChecked = true;
+      // 기존 변환 결과와 한 픽셀이라도 다르면 기존 방식으로 되돌린다.
+      if (!yuvConverter.matchesReference(slot.yuvBytes[0], previewWidth, previewHeight)) {
+        yuvConverter.setCompatibilityMode(true);
+      }
+    }
+    yuvConverter.convertYUV420SPToARGB8888(slot.yuvBytes[0], previewWidth, previewHeight, rgbBytes);
+    slot.getRgbFrameBitmap()
+        .setPixels(rgbBytes, 0, previewWidth, 0, 0, previewWidth, previewHeight);
   }
 
   /** Callback for android.hardware.Camera API */
   @Override
   public void onPreviewFrame(final byte[] bytes, final Camera camera) {
-    if (isProcessingFrame) {
-      LOGGER.w("Dropping frame!");
-      return;
-    }
-
     try {
       // Initialize the storage bitmaps once when the resolution is known.
-      if (rgbBytes == null) {
+      if (previewWidth == 0 || previewHeight == 0) {
         Camera.Size previewSize = camera.getParameters().getPreviewSize();
         previewHeight = previewSize.height;
         previewWidth = previewSize.width;
-        rgbBytes = new int[previewWidth * previewHeight];
         onPreviewSizeChosen(new Size(previewSize.width, previewSize.height), 90);
       }
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
+      camera.addCallbackBuffer(bytes);
       return;
     }
 
-    isProcessingFrame = true;
-    yuvBytes[0] = bytes;
-    yRowStride = previewWidth;
-
-    imageConverter =
-        new Runnable() {
-          @Override
-          public void run() {
-            ImageUtils.convertYUV420SPToARGB8888(bytes, previewWidth, previewHeight, rgbBytes);
-          }
-        };
+    final FramePipeline<FrameSlot> pipeline = framePipeline;
+    final FrameSlot slot = pipeline != null ? pipeline.acquire() : null;
+    if (slot == null) {
+      LOGGER.w("Dropping frame!");
+      camera.addCallbackBuffer(bytes);
+      return;
+    }
 
-    postInferenceCallback =
-        new Runnable() {
-          @Override
-          public void run() {
-            camera.addCallbackBuffer(bytes);
-            isProcessingFrame = false;
-          }
-        };
-    processImage();
+    // 프레임을 슬롯에 복사하고 카메라 버퍼는 즉시 반환한다.
+    if (slot.yuvBytes[0] == null || slot.yuvBytes[0].length != bytes.length) {
+      slot.yuvBytes[0] = new byte[bytes.length];
+    }
+    System.arraycopy(bytes, 0, slot.yuvBytes[0], 0, bytes.length);
+    camera.addCallbackBuffer(bytes);
+    slot.yRowStride = previewWidth;
+    slot.hasYuvPlanes = false;
+    slot.timestamp = ++frameCount;
+    slot.captureTime = SystemClock.uptimeMillis();
+    pipeline.submit(slot);
   }
 
   /** Callback for Camera2 API */
@@ -399,75 +417,45 @@ public abstract class CameraActivity extends AppCompatActivity
     if (previewWidth == 0 || previewHeight == 0) {
       return;
     }
-    if (rgbBytes == null) {
-      rgbBytes = new int[previewWidth * previewHeight];
-    }
+    final FramePipeline<FrameSlot> pipeline = framePipeline;
+    Image image = null;
+    // 제출하지 못한 슬롯은 finally에서 파이프라인에 돌려준다.
+    FrameSlot slot = null;
     try {
-      final Image image = reader.acquireLatestImage();
+      image = reader.acquireLatestImage();
 
       if (image == null) {
         return;
       }
 
-      if (isProcessingFrame) {
-        image.close();
+      slot = pipeline != null ? pipeline.acquire() : null;
+      if (slot == null) {
         return;
       }
-      isProcessingFrame = true;
       Trace.beginSection("imageAvailable");
+      // 평면을 슬롯에 복사하면 Image는 바로 닫을 수 있다.
       final Plane[] planes = image.getPlanes();
-      fillBytes(planes, yuvBytes);
-      yRowStride = planes[0].getRowStride();
-      final int uvRowStride = planes[1].getRowStride();
-      final int uvPixelStride = planes[1].getPixelStride();
-
-      imageConverter =
-          new Runnable() {
-            @Override
-            public void run() {
-              ImageUtils.convertYUV420ToARGB8888(
-                  yuvBytes[0],
-                  yuvBytes[1],
-                  yuvBytes[2],
-                  previewWidth,
-                  previewHeight,
-                  yRowStride,
-                  uvRowStride,
-                  uvPixelStride,
-                  rgbBytes);
-            }
-          };
-
-      postInferenceCallback =
-          new Runnable() {
-            @Override
-            public void run() {
-              image.close();
-              isProcessingFrame = false;
-            }
-          };
-
-      if(processImage())
-      {
-        //Log.d("valid_objects",""+valid_objects.size());
-        final long t = SystemClock.uptimeMillis();
-        for (DetectedObj item : valid_objects)
-        {
-          item.showInfo(t);
-        }
-        if(valid_objects.size() >= 20) {
-          valid_objects.clear();
-        }
-      }
-      else{
-        //Log.d("size",""+li.size());
-      }
+      fillBytes(planes, slot.yuvBytes);
+      slot.yRowStride = planes[0].getRowStride();
+      slot.uvRowStride = planes[1].getRowStride();
+      slot.uvPixelStride = planes[1].getPixelStride();
+      slot.hasYuvPlanes = true;
+      slot.timestamp = ++frameCount;
+      slot.captureTime = SystemClock.uptimeMillis();
+      pipeline.submit(slot);
+      slot = null;
+      Trace.endSection();
     } catch (final Exception e) {
       LOGGER.e(e, "Exception!");
       Trace.endSection();
-      return;
+    } finally {
+      if (slot != null) {
+        pipeline.release(slot);
+      }
+      if (image != null) {
+        image.close();
+      }
     }
-    Trace.endSection();
   }
 
   @Override
@@ -512,6 +500,8 @@ public abstract class CameraActivity extends AppCompatActivity
   public synchronized void onDestroy() {
     LOGGER.d("onDestroy " + this);
     super.onDestroy();
+    setFramePipeline(null);
+    yuvConverter.close();
     // TTS 객체가 남아있다면 실행을 중지하고 메모리에서 제거한다.
     if(tts != null){
       tts.stop();
@@ -662,12 +652,6 @@ public abstract class CameraActivity extends AppCompatActivity
     return debug;
   }
 
-  protected void readyForNextImage() {
-    if (postInferenceCallback != null) {
-      postInferenceCallback.run();
-    }
-  }
-
   protected int getScreenOrientation() {
     switch (getWindowManager().getDefaultDisplay().getRotation()) {
       case Surface.ROTATION_270:
@@ -683,57 +667,24 @@ public abstract class CameraActivity extends AppCompatActivity
 
   // Midas 추론 결과를 화면에 출력
   @UiThread
-  protected void showResultsInTexture(float[] img_array, int imageSizeX, int imageSizeY) {
-    float maxval = Float.NEGATIVE_INFINITY;
-    float minval = Float.POSITIVE_INFINITY;
-    for (float cur : img_array) {
-      maxval = Math.max(maxval, cur);
-      minval = Math.min(minval, cur);
-    }
-    float multiplier = 0;
-    if ((maxval - minval) > 0) multiplier = 255 / (maxval - minval);
-
-    int[] img_normalized = new int[img_array.length];
-    for (int i = 0; i < img_array.length; ++i) {
-      float val = (float) (multiplier * (img_array[i] - minval));
-      img_normalized[i] = (int) val;
-    }
-
+  protected void showResultsInTexture(Bitmap depthPreview) {
     TextureView textureView = findViewById(R.id.textureView3);
 
     if(textureView.isAvailable()) {
-      int width = imageSizeX;
-      int height = imageSizeY;
-
       Canvas canvas = textureView.lockCanvas();
       canvas.drawColor(Color.BLUE);
-      Paint paint = new Paint();
-      paint.setStyle(Paint.Style.FILL);
-      paint.setARGB(255, 150, 150, 150);
 
       int canvas_size = Math.min(canvas.getWidth(), canvas.getHeight());
 
-      Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
-
-      for (int ii = 0; ii < width; ii++) //pass the screen pixels in 2 directions
-      {
-        for (int jj = 0; jj < height; jj++) {
-          int index = (width - ii - 1) + (height - jj - 1) * width;
-          if(index < img_array.length) {
-            int val = img_normalized[index];
-            bitmap.setPixel(ii, jj, Color.rgb(val, val, val));
-          }
-        }
-      }
-
-      canvas.drawBitmap(bitmap, null, new RectF(0, 0+160, canvas_size, 160 + canvas_size), null);
+      // 미리보기 비트맵은 축소 해상도일 수 있으므로 그릴 때 확대한다.
+      previewRect.set(0, 160, canvas_size, 160 + canvas_size);
+      canvas.drawBitmap(depthPreview, null, previewRect, previewPaint);
 
       textureView.unlockCanvasAndPost(canvas);
-
     }
-
   }
 
+
   protected void showResultsInBottomSheet(List<Recognition> results) {
     if (results != null && results.size() >= 3) {
       Recognition recognition = results.get(0);
@@ -823,8 +774,6 @@ public abstract class CameraActivity extends AppCompatActivity
     }
   }
 
-  protected abstract boolean processImage();
-
   protected abstract void onPreviewSizeChosen(final Size size, final int rotation);
 
   protected abstract int getLayoutId();
@@ -18,7 +18,6 @@ package org.tensorflow.lite.examples.classification;
 
 import android.content.Context;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
 import android.graphics.Matrix;
 import android.graphics.Typeface;
 import android.media.ImageReader.OnImageAvailableListener;
@@ -33,14 +32,29 @@ import android.view.ViewStub;
 import android.widget.TextView;
 import android.widget.Toast;
 import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.tensorflow.lite.examples.classification.customview.AutoFitTextureView;
 import org.tensorflow.lite.examples.classification.customview.OverlayView;
 import org.tensorflow.lite.examples.classification.customview.OverlayView.DrawCallback;
+import org.tensorflow.lite.examples.classification.depth.DepthFrame;
+import org.tensorflow.lite.examples.classification.depth.DepthMap;
+import org.tensorflow.lite.examples.classification.depth.DepthMapPool;
+import org.tensorflow.lite.examples.classification.depth.DepthRegion;
+import org.tensorflow.lite.examples.classification.depth.DepthRenderer;
+import org.tensorflow.lite.examples.classification.depth.DepthRoiPolicy;
+import org.tensorflow.lite.examples.classification.depth.DepthScheduler;
 import org.tensorflow.lite.examples.classification.env.BorderedText;
+import org.tensorflow.lite.examples.classification.env.FramePipeline;
+import org.tensorflow.lite.examples.classification.env.FramePyramid;
 import org.tensorflow.lite.examples.classification.env.Logger;
 import org.tensorflow.lite.examples.classification.env.ImageUtils;
 import org.tensorflow.lite.examples.classification.tflite.Classifier_Midas;
@@ -49,7 +63,9 @@ import org.tensorflow.lite.examples.classification.tflite.Classifier_Midas.Model
 import org.tensorflow.lite.examples.classification.tflite.Classifier_Yolo;
 import org.tensorflow.lite.examples.classification.tflite.DetectorFactory;
 import org.tensorflow.lite.examples.classification.tflite.YoloV5Classifier;
+import org.tensorflow.lite.examples.classification.tracking.LucasKanadeTracker;
 import org.tensorflow.lite.examples.classification.tracking.MultiBoxTracker;
+import org.tensorflow.lite.examples.classification.tracking.TrackAssociator;
 
 import android.widget.ImageView;
 import android.graphics.Bitmap;
@@ -70,8 +86,7 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
   private static final float TEXT_SIZE_DIP = 10;
   public static final float MINIMUM_CONFIDENCE_TF_OD_API = 0.5f; // 물체 인식 확률 TH
 
-  private Bitmap rgbFrameBitmap = null;
-  private long lastProcessingTimeMs;
+  private volatile long lastProcessingTimeMs;
   private Integer sensorOrientation;
   private Classifier_Midas classifier;
   private BorderedText borderedText;
@@ -85,13 +100,88 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
   private static final boolean MAINTAIN_ASPECT = true;
   private static final DetectorMode MODE = DetectorMode.TF_OD_API;
   private static final boolean SAVE_PREVIEW_BITMAP = false; // 비트맵 저장 여부
-  private boolean computingDetection = false;;
-  private long timestamp = 0;
+  // YOLO 출력 디코딩 스레드 수 (추론 스레드 포함)
+  private static final int DECODE_THREADS =
+      Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+  // YOLO와 MiDaS는 동시에 실행되므로 설정된 인터프리터 스레드 수를 이 비율로 나눠 쓴다.
+  private static final float YOLO_THREAD_SHARE = 0.5f;
+  // 모델별 전용 실행 스레드 (각 인터프리터는 항상 같은 스레드에서만 실행)
+  private final ExecutorService yoloExecutor = Executors.newSingleThreadExecutor();
+  private final ExecutorService midasExecutor = Executors.newSingleThreadExecutor();
+  // 파이프라인 단계별 대기열 크기
+  private static final int PIPELINE_QUEUE_DEPTH = 1;
+  // MiDaS는 최대 DEPTH_INTERVAL 프레임마다, 장면 변화가 크면 그보다 먼저 실행
+  private static final int DEPTH_INTERVAL = 3;
+  private static final float DEPTH_MOTION_THRESHOLD = 12.0f; // 평균 휘도 차이 (0~255)
+  private final DepthScheduler depthScheduler =
+      new DepthScheduler(DEPTH_INTERVAL, DEPTH_MOTION_THRESHOLD, 40, 30);
+  // 박스 깊이 백분위수 추정용 히스토그램 설정
+  private static final int DEPTH_HISTOGRAM_BINS = 64;
+  private static final int DEPTH_TILE_SIZE = 16;
+  private static final float DEPTH_PERCENTILE = 0.5f; // 중앙값
+  // 깊이 맵 테이블 재사용: 스케줄러와 처리 중인 프레임이 모두 놓은 맵만 돌려받는다.
+  private static final int DEPTH_MAP_POOL_SIZE = 8;
+  private final DepthMapPool depthMapPool = new DepthMapPool(DEPTH_MAP_POOL_SIZE);
+  // 박스 주변 크롭 깊이 추론 설정 (검출 영역이 작을 때만 사용)
+  private static final int DEPTH_CROP_SIZE = 128;
+  private static final int DEPTH_MAX_CROPS = 3;
+  private static final float DEPTH_CROP_PADDING = 0.25f;
+  private static final float DEPTH_MIN_CROP_SIZE = 96.0f;
+  private static final float DEPTH_MAX_CROP_AREA = 0.3f; // 프레임 대비 크롭 면적 합
+  private static final int DEPTH_FULL_FRAME_INTERVAL = 4; // 최소 4번에 1번은 전체 프레임
+  private final DepthRoiPolicy depthRoiPolicy =
+      new DepthRoiPolicy(DEPTH_CROP_PADDING, DEPTH_MIN_CROP_SIZE, DEPTH_MAX_CROPS,
+          DEPTH_MAX_CROP_AREA, DEPTH_FULL_FRAME_INTERVAL);
+  private final RectF[] depthCrops = new RectF[DEPTH_MAX_CROPS];
+  private boolean depthCropMode = false;
+  /** YOLO crop-space boxes of the latest fused frame; written by the fuse stage, read by infer. */
+  private volatile RectF[] latestDetections;
+  /** Crop pixels fed to MiDaS; only touched on the MiDaS executor. */
+  private int[] depthCropPixels;
+  // 깊이 맵 미리보기 (필드 테스트용): 전체 프레임 결과만 컬러맵으로 그린다.
+  private static final boolean SHOW_DEPTH_PREVIEW = true;
+  private static final int DEPTH_PREVIEW_STEP = 1; // 2이면 가로세로 절반 해상도
+  private final DepthRenderer depthRenderer =
+      new DepthRenderer(DepthRenderer.jetColormap(), DEPTH_PREVIEW_STEP);
+  // 추론 단계와 모델 교체가 겹치지 않도록 보호
+  private final Object modelLock = new Object();
   private YoloV5Classifier detector; // 물체 인식 클래스
-  private Bitmap croppedBitmap = null;
-  private Bitmap cropCopyBitmap = null;
   private Matrix frameToCropTransform;
   private Matrix cropToFrameTransform;
+  // 두 모델이 함께 쓰는 프레임 피라미드 구성: 0단계 YOLO 입력, 1단계 MiDaS 입력
+  private static final int DEPTH_PYRAMID_LEVEL = 1;
+  private volatile FramePyramid.Layout pyramidLayout;
+  // 융합 단계 전용 임시 사각형
+  private final RectF depthBox = new RectF();
+  // 트랙-검출 연관 설정 (프레임 좌표, 픽셀): 게이트 반경 = 박스 긴 변 x 배율, 최소 반경 보장
+  private static final float TRACK_GATE_SCALE = 1.0f;
+  private static final float TRACK_MIN_GATE_RADIUS = 40.0f;
+  private static final float TRACK_GRID_CELL_SIZE = 64.0f;
+  private final TrackAssociator trackAssociator =
+      new TrackAssociator(TRACK_GATE_SCALE, TRACK_MIN_GATE_RADIUS, TRACK_GRID_CELL_SIZE);
+  // 연관 입력 배열 (융합 단계 전용, 필요할 때만 키운다)
+  private RectF[] trackBoxes = new RectF[0];
+  private String[] trackClasses = new String[0];
+  private RectF[] detectionBoxes = new RectF[0];
+  private String[] detectionClasses = new String[0];
+  private int[] trackAssignment = new int[0];
+  // 추적 중인 객체: 융합 단계만 수정하고, 다른 스레드는 프레임마다 발행되는 스냅샷을 읽는다.
+  private static final int MAX_TRACKS = 32;
+  private final TrackStore trackStore = new TrackStore(MAX_TRACKS);
+  // YOLO는 DETECT_INTERVAL 프레임마다 실행하고, 그 사이 프레임은 광류로 박스를 옮긴다.
+  private static final int DETECT_INTERVAL = 3;
+  private static final int FLOW_PYRAMID_LEVELS = 3;
+  private static final int FLOW_WINDOW_RADIUS = 4; // 9x9 창
+  private static final int FLOW_MAX_ITERATIONS = 10;
+  private static final float FLOW_MAX_FB_ERROR = 1.5f; // 전후방 추적 오차 한계 (프레임 픽셀)
+  private static final int FLOW_GRID_SIZE = 5; // 박스당 5x5 점
+  private static final float FLOW_MIN_VALID_FRACTION = 0.5f;
+  /** Luminance flow between consecutive inferred frames; only touched by the infer stage. */
+  private LucasKanadeTracker flowTracker;
+  /** Crop-space results of the last inferred frame, to flow into the next; infer stage only. */
+  private List<Classifier_Yolo.Recognition> flowSource;
+  private int framesSinceDetection;
+  private final RectF flowBox = new RectF();
   private MultiBoxTracker tracker;
   OverlayView trackingOverlay;
 
@@ -110,6 +200,8 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
 
     try {
       detector = DetectorFactory.getDetector(getAssets(), modelString);
+      detector.setNumThreads(getYoloThreads(getNumThreads()));
+      detector.setDecodeThreads(DECODE_THREADS, YoloV5Classifier.MIN_PARALLEL_DECODE_ROWS);
     } catch (final IOException e) {
       e.printStackTrace();
       LOGGER.e(e, "Exception initializing classifier!");
@@ -120,7 +212,7 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
       finish();
     }
 
-    recreateClassifier(getModel(), getDevice(), getNumThreads());
+    recreateClassifier(getModel(), getDevice(), getMidasThreads(getNumThreads()));
     if (classifier == null) {
       LOGGER.e("No classifier on preview!");
       return;
@@ -136,9 +228,6 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
     LOGGER.i("Camera orientation relative to screen canvas: %d", sensorOrientation);
 
     LOGGER.i("Initializing at size %dx%d", previewWidth, previewHeight);
-    rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-
-    croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
 
     frameToCropTransform =
             ImageUtils.getTransformationMatrix(
@@ -148,6 +237,11 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
 
     cropToFrameTransform = new Matrix();
     frameToCropTransform.invert(cropToFrameTransform);
+    updatePyramidLayout();
+    flowTracker = new LucasKanadeTracker(previewWidth, previewHeight, FLOW_PYRAMID_LEVELS,
+        FLOW_WINDOW_RADIUS, FLOW_MAX_ITERATIONS, FLOW_MAX_FB_ERROR, FLOW_GRID_SIZE,
+        FLOW_MIN_VALID_FRACTION);
+    flowSource = null;
 
     trackingOverlay = (OverlayView) findViewById(R.id.tracking_overlay);
     trackingOverlay.addCallback(
@@ -162,287 +256,521 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
             });
 
     tracker.setFrameConfiguration(previewWidth, previewHeight, sensorOrientation);
+
+    setFramePipeline(createFramePipeline());
   }
 
-  // 상민 생성 함수
-  protected Bitmap GraycaleToBitmap(float[] img_array, int imageSizeX, int imageSizeY) {
-    float maxval = Float.NEGATIVE_INFINITY;
-    float minval = Float.POSITIVE_INFINITY;
-    for (float cur : img_array) {
-      maxval = Math.max(maxval, cur);
-      minval = Math.min(minval, cur);
+  /**
+   * Builds the per-frame pipeline: capture (camera thread) → convert → infer → fuse/track →
+   * alert/render, each stage on its own thread with a queue of PIPELINE_QUEUE_DEPTH frames.
+   */
+  @SuppressWarnings("unchecked")
+  private FramePipeline<FrameSlot> createFramePipeline() {
+    final String[] names = {"convert", "infer", "fuse", "render"};
+    final FramePipeline.Stage<FrameSlot>[] stages =
+        new FramePipeline.Stage[] {
+          (FramePipeline.Stage<FrameSlot>) this::buildPyramid,
+          (FramePipeline.Stage<FrameSlot>) this::inferFrame,
+          (FramePipeline.Stage<FrameSlot>) this::fuseFrame,
+          (FramePipeline.Stage<FrameSlot>) this::renderFrame
+        };
+    final FrameSlot[] slots =
+        new FrameSlot[FramePipeline.requiredSlots(stages.length, PIPELINE_QUEUE_DEPTH)];
+    for (int i = 0; i < slots.length; ++i) {
+      slots[i] = new FrameSlot(previewWidth, previewHeight);
     }
-    float multiplier = 0;
-    if ((maxval - minval) > 0) multiplier = 255 / (maxval - minval);
+    return new FramePipeline<>("frame", slots, PIPELINE_QUEUE_DEPTH, names, stages);
+  }
 
-    int[] img_normalized = new int[img_array.length];
-    for (int i = 0; i < img_array.length; ++i) {
-      float val = (float) (multiplier * (img_array[i] - minval));
-      img_normalized[i] = (int) val;
+  // 변환 단계: 두 모델의 입력 크기로 프레임 피라미드를 한 번만 만든다
+  private boolean buildPyramid(final FrameSlot slot) {
+    slot.reset();
+    final FramePyramid.Layout layout = pyramidLayout;
+    if (layout == null) {
+      return false;
+    }
+    if (slot.hasYuvPlanes) {
+      // Camera2 프레임은 YUV 평면에서 바로 샘플링 (전체 프레임 변환 생략)
+      slot.pyramid.buildFromYuv(layout, slot.yuvBytes[0], slot.yuvBytes[1], slot.yuvBytes[2],
+          slot.yRowStride, slot.uvRowStride, slot.uvPixelStride);
+    } else {
+      convertFrame(slot);
+      slot.pyramid.buildFromBitmap(layout, slot.getRgbFrameBitmap());
     }
+    return true;
+  }
+
+  // 추론 단계: YOLO와 MiDaS를 동시에 실행
+  private boolean inferFrame(final FrameSlot slot) {
+    synchronized (modelLock) {
+      if (detector == null || classifier == null) {
+        return false;
+      }
+      detector.useGpu();
+      final long startTime = SystemClock.uptimeMillis();
+      final YoloV5Classifier yolo = detector;
+      final Classifier_Midas midas = classifier;
+      final FramePyramid pyramid = slot.pyramid;
+      final FramePyramid.Layout layout = pyramid.getLayout();
+      if (layout != pyramidLayout) {
+        // 모델이 바뀌기 전의 크기로 만들어진 프레임
+        return false;
+      }
 
-    int width = imageSizeX; // 256
-    int height = imageSizeY; // 256
+      // 휘도 피라미드는 매 프레임 갱신해야 다음 프레임으로 박스를 옮길 수 있다.
+      flowTracker.setFrame(slot.getLuminance(), slot.getLuminanceStride());
+      final boolean detectScheduled = flowSource == null || !flowTracker.hasPrevious()
+          || framesSinceDetection + 1 >= DETECT_INTERVAL;
 
-    Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.RGB_565);
+      // Yolo 추론 : results에 감지된 객체들의 정보가 저장됨 (getLocation으로 Box 정보 불러옴)
+      // 피라미드의 0단계가 YOLO 입력
+      final Callable<List<Classifier_Yolo.Recognition>> detect =
+          () -> {
+            yolo.loadPixelInput(pyramid.getLevel(0));
+            return yolo.recognizeLoadedInput();
+          };
+      Future<List<Classifier_Yolo.Recognition>> yoloFuture =
+          detectScheduled ? yoloExecutor.submit(detect) : null;
+
+      Future<DepthFrame> midasFuture = null;
+      boolean depthRecorded = false;
+      try {
+        // Midas 추론 : img_array에 결과 이미지 저장됨 (YOLO와 동시에 실행)
+        // 실행하지 않는 프레임은 마지막 깊이 맵을 재사용
+        final boolean runDepth =
+            depthScheduler.shouldRun(slot.getLuminance(), slot.getLuminanceStride(),
+                previewWidth, previewHeight, slot.timestamp);
+        // 검출 영역이 작으면 전체 프레임 대신 박스 주변 크롭만 MiDaS에 넣는다.
+        final int numCrops = runDepth && depthCropMode
+            ? depthRoiPolicy.selectCrops(
+                latestDetections, layout.getCropSize(), layout.getCropSize(), depthCrops)
+            : 0;
+        final RectF[] crops = depthCrops;
+        final DepthFrame reference = depthScheduler.getLastFullFrame();
+        if (runDepth) {
+          midasFuture = midasExecutor.submit(
+              () -> numCrops == 0
+                  ? computeFullDepth(midas, pyramid)
+                  : computeCropDepth(midas, pyramid, crops, numCrops, reference));
+        }
 
-    for (int ii = 0; ii < width; ii++) //pass the screen pixels in 2 directions
-    {
-      for (int jj = 0; jj < height; jj++) {
-        int index = (width - ii - 1) + (height - jj - 1) * width;
-        if(index < img_array.length) {
-          int val = img_normalized[index];
-          bitmap.setPixel(ii, jj, Color.rgb(val, val, val));
+        // 검출을 건너뛰는 프레임: MiDaS가 도는 동안 이전 결과를 광류로 옮긴다.
+        // 박스 하나라도 전후방 검사를 통과하지 못하면 이번 프레임에서 바로 검출한다.
+        List<Classifier_Yolo.Recognition> flowed = null;
+        if (yoloFuture == null) {
+          flowed = flowResults(flowSource);
+          if (flowed == null) {
+            yoloFuture = yoloExecutor.submit(detect);
+          }
+        }
+
+        // 깊이 융합 전에 두 모델의 결과를 기다린다.
+        slot.results = yoloFuture != null ? yoloFuture.get() : flowed;
+        if (midasFuture != null) {
+          depthScheduler.onDepthComputed(midasFuture.get(), slot.timestamp, SystemClock.uptimeMillis());
+          depthRecorded = true;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      } finally {
+        // 예외로 빠져나가도 두 모델이 끝난 뒤에 잠금을 놓는다 (모델 교체가 추론 중인 인터프리터를
+        // 닫지 않도록). 쓰이지 않은 깊이 맵은 풀로 돌려준다.
+        if (yoloFuture != null) {
+          awaitQuietly(yoloFuture);
         }
+        if (midasFuture != null && !depthRecorded) {
+          final DepthFrame unused = awaitQuietly(midasFuture);
+          if (unused != null) {
+            unused.discard();
+          }
+        }
+      }
+      framesSinceDetection = yoloFuture != null ? 0 : framesSinceDetection + 1;
+      // 융합 단계가 결과의 위치를 프레임 좌표로 바꾸므로 크롭 좌표 사본을 따로 둔다.
+      flowSource = copyResults(slot.results);
+      slot.depth = depthScheduler.getLastDepth();
+      if (slot.depth != null) {
+        slot.depth.retain();
       }
+      slot.depthAge = depthScheduler.getAgeFrames(slot.timestamp);
+      slot.cropToFrame = cropToFrameTransform;
+      slot.cropSize = Math.min(previewWidth, previewHeight);
+      lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
     }
+    Log.e("CHECK", "run: " + slot.results.size());
+    return true;
+  }
 
-    Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, 480, 480, true);
+  /**
+   * Waits for a model run whose result may no longer be wanted, so that its interpreter is idle
+   * before {@link #modelLock} is released.
+   *
+   * @return the result, or null if the run failed.
+   */
+  private static <T> T awaitQuietly(Future<T> future) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return future.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException e) {
+          return null;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
 
-    Log.d("resizedBitmap",""+resizedBitmap.getWidth()+","+resizedBitmap.getHeight());
-    return resizedBitmap;
+  /**
+   * Moves crop-space results from the previous inferred frame to the current one with
+   * {@link #flowTracker}. Boxes are flowed in frame coordinates, where the luminance lives.
+   *
+   * @return the moved results, or null if any box failed the forward-backward check.
+   */
+  private List<Classifier_Yolo.Recognition> flowResults(List<Classifier_Yolo.Recognition> source) {
+    final List<Classifier_Yolo.Recognition> flowed = new ArrayList<>(source.size());
+    for (final Classifier_Yolo.Recognition result : source) {
+      flowBox.set(result.getLocation());
+      cropToFrameTransform.mapRect(flowBox);
+      if (!flowTracker.track(flowBox, flowBox)) {
+        return null;
+      }
+      frameToCropTransform.mapRect(flowBox);
+      flowed.add(new Classifier_Yolo.Recognition(result.getId(), result.getTitle(),
+          result.getConfidence(), new RectF(flowBox), result.getDetectedClass()));
+    }
+    return flowed;
   }
 
-  // 추론 및 알고리즘 동작
-  @Override
-  protected boolean processImage() {
-    detector.useGpu();
-    ++timestamp;
-    final long currTimestamp = timestamp;
-    trackingOverlay.postInvalidate();
+  private static List<Classifier_Yolo.Recognition> copyResults(
+      List<Classifier_Yolo.Recognition> results) {
+    final List<Classifier_Yolo.Recognition> copies = new ArrayList<>(results.size());
+    for (final Classifier_Yolo.Recognition result : results) {
+      copies.add(new Classifier_Yolo.Recognition(result.getId(), result.getTitle(),
+          result.getConfidence(), result.getLocation(), result.getDetectedClass()));
+    }
+    return copies;
+  }
 
-    // No mutex needed as this method is not reentrant.
-    if (computingDetection) {
-      readyForNextImage();
-      return false;
+  /** Runs MiDaS on the whole crop, from the pyramid's depth level. */
+  private DepthFrame computeFullDepth(Classifier_Midas midas, FramePyramid pyramid) {
+    final FramePyramid.Layout layout = pyramid.getLayout();
+    // 출력 버퍼를 복사하지 않고 바로 읽는다 (DepthMap은 생성 중에만 값을 읽음).
+    final Classifier_Midas.DepthOutput output =
+        midas.recognizeDepth(pyramid.getLevel(DEPTH_PYRAMID_LEVEL));
+    final int width = layout.getWidth(DEPTH_PYRAMID_LEVEL);
+    final int height = layout.getHeight(DEPTH_PYRAMID_LEVEL);
+    if (SHOW_DEPTH_PREVIEW) {
+      if (output.isQuantized()) {
+        depthRenderer.render(output.getQuantizedValues(), width, height);
+      } else {
+        depthRenderer.render(output.getValues(), width, height);
+      }
     }
-    computingDetection = true;
+    final DepthMap map = createDepthMap(output, 0, width, height);
+    final float cropSize = layout.getCropSize();
+    return DepthFrame.fullFrame(
+        new DepthRegion(map, layout.getCropToLevel(DEPTH_PYRAMID_LEVEL),
+            new RectF(0, 0, cropSize, cropSize), 1.0f));
+  }
 
-    rgbFrameBitmap.setPixels(getRgbBytes(), 0, previewWidth, 0, 0, previewWidth, previewHeight);
-    final int cropSize = Math.min(previewWidth, previewHeight);
+  /**
+   * Runs MiDaS on a batch of crops around the latest detections. MiDaS depth is relative and its
+   * scale depends on the input, so every crop is scaled to match the last full-frame map over the
+   * same area; that map also answers boxes no crop covers.
+   */
+  private DepthFrame computeCropDepth(Classifier_Midas midas, FramePyramid pyramid, RectF[] crops,
+      int numCrops, DepthFrame reference) {
+    final int size = midas.getCropSize();
+    if (depthCropPixels == null || depthCropPixels.length < numCrops * size * size) {
+      depthCropPixels = new int[DEPTH_MAX_CROPS * size * size];
+    }
+    for (int i = 0; i < numCrops; ++i) {
+      pyramid.sampleRegion(crops[i], size, size, depthCropPixels, i * size * size);
+    }
+    final Classifier_Midas.DepthOutput output = midas.recognizeCrops(depthCropPixels, numCrops);
+    final DepthRegion fallback = reference != null ? reference.getRegion(0) : null;
+    final DepthRegion[] regions = new DepthRegion[numCrops];
+    final RectF mapped = new RectF();
+    for (int i = 0; i < numCrops; ++i) {
+      final DepthMap map = createDepthMap(output, i * size * size, size, size);
+
+      // 크롭은 YOLO 좌표계에서 잘랐으므로 이동과 확대만 하면 된다.
+      final RectF crop = crops[i];
+      final Matrix cropToMap = new Matrix();
+      cropToMap.setTranslate(-crop.left, -crop.top);
+      cropToMap.postScale(size / crop.width(), size / crop.height());
+      final RectF coverage = new RectF(crop);
+
+      float scale = 1.0f;
+      if (fallback != null) {
+        fallback.mapBox(coverage, mapped);
+        final float referenceMean = fallback.getMean(mapped);
+        final float cropMean = map.getMean(0, 0, size, size);
+        if (referenceMean > 0 && cropMean > 0) {
+          scale = referenceMean / cropMean;
+        }
+      }
+      regions[i] = new DepthRegion(map, cropToMap, coverage, scale);
+    }
+    return DepthFrame.crops(regions, fallback);
+  }
 
-    readyForNextImage();
+  /**
+   * Builds the statistics of one map of a depth output, starting at value {@code offset}. Quantized
+   * output is read as uint8 codes; only the values a query returns are dequantized.
+   */
+  private DepthMap createDepthMap(
+      Classifier_Midas.DepthOutput output, int offset, int width, int height) {
+    if (!output.isValid()) {
+      throw new IllegalStateException(
+          "Depth output " + output.getSequence() + " was overwritten before it was read");
+    }
+    if (output.isQuantized()) {
+      final ByteBuffer codes = output.getQuantizedValues();
+      codes.position(offset);
+      return depthMapPool.obtain(codes, output.getScale(), output.getZeroPoint(), width, height,
+          true, DEPTH_HISTOGRAM_BINS, DEPTH_TILE_SIZE);
+    }
+    final FloatBuffer values = output.getValues();
+    values.position(offset);
+    return depthMapPool.obtain(values, width, height, true, DEPTH_HISTOGRAM_BINS, DEPTH_TILE_SIZE);
+  }
 
-    final Canvas canvas = new Canvas(croppedBitmap);
-    canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+  // 융합/추적 단계: 깊이 추정, 객체 추적, 음성 안내 대상 선정
+  private boolean fuseFrame(final FrameSlot slot) {
+    final List<Classifier_Yolo.Recognition> results = slot.results;
+    final DepthFrame depthFrame = slot.depth;
 
-    // 이미지 저장 (실제로는 실행이 안됨)
-    //if (SAVE_PREVIEW_BITMAP) {
-    //  ImageUtils.saveBitmap(croppedBitmap);
-    //}
+    float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
+    switch (MODE) {
+      case TF_OD_API:
+        minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
+        break;
+    }
 
-    runInBackground(
-        new Runnable() {
-          @Override
-          public void run() {
-            if (classifier != null) {
-              final long startTime = SystemClock.uptimeMillis();
-
-              // Yolo 추론 : results에 감지된 객체들의 정보가 저장됨 (getLocation으로 Box 정보 불러옴)
-              final List<Classifier_Yolo.Recognition> results = detector.recognizeImage(croppedBitmap);
-              Log.e("CHECK", "run: " + results.size());
-
-              // Midas 추론 : img_array에 결과 이미지 저장됨
-              float[] img_array = classifier.recognizeImage(rgbFrameBitmap, sensorOrientation);
-              //Bitmap bitmap_Midas = GraycaleToBitmap(img_array, imageSizeX, imageSizeY); // bitmap으로 변환 (미완성)
-
-              // 감지된 물체의 Box를 화면에 그림
-              cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
-              final Canvas canvas = new Canvas(cropCopyBitmap);
-              final Paint paint = new Paint();
-              paint.setColor(Color.RED);
-              paint.setStyle(Paint.Style.STROKE);
-              paint.setStrokeWidth(1.0f);
-
-              float minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-              switch (MODE) {
-                case TF_OD_API:
-                  minimumConfidence = MINIMUM_CONFIDENCE_TF_OD_API;
-                  break;
-              }
+    final List<Classifier_Yolo.Recognition> mappedRecognitions = slot.mappedRecognitions;
+
+    // 임시 검출 객체(detectedObj) 리스트.
+    ArrayList<DetectedObj> temp_objects = new ArrayList<>();
+    final ArrayList<RectF> cropBoxes = new ArrayList<>();
+    final long currentTime = SystemClock.uptimeMillis();
+
+    for (final Classifier_Yolo.Recognition result : results) {
+      final RectF location = result.getLocation();
+      if (location != null && result.getConfidence() >= minimumConfidence) {
+        // 깊이 구하기
+        // 박스 전체의 깊이 백분위수 (경계에 섞인 배경은 무시), 타일 히스토그램으로 계산
+        // 박스를 덮는 깊이 영역 (전체 프레임 또는 크롭)에서 읽는다.
+        float avg_val = Float.NaN;
+        float var_val = Float.NaN;
+        final DepthRegion depthRegion = depthFrame.find(location);
+        if (depthRegion != null) {
+          depthRegion.mapBox(location, depthBox);
+          avg_val = depthRegion.getPercentile(depthBox, DEPTH_PERCENTILE);
+          var_val = depthRegion.getVariance(depthBox);
+        }
 
-              final List<Classifier_Yolo.Recognition> mappedRecognitions =
-                      new LinkedList<Classifier_Yolo.Recognition>();
-
-              // 임시 검출 객체(detectedObj) 리스트.
-              ArrayList<DetectedObj> temp_objects = new ArrayList<>();
-              final long currentTime = SystemClock.uptimeMillis();
-
-              for (final Classifier_Yolo.Recognition result : results) {
-                final RectF location = result.getLocation();
-                if (location != null && result.getConfidence() >= minimumConfidence) {
-                  // 깊이 구하기
-                  // 480, 480 scale좌표를 256, 256으로 변환.
-                  int depth_x = (int)((result.getLocation().centerX()/480.0) * 256);
-                  int depth_y = (int)((result.getLocation().centerY()/480.0) * 256);
-                  // midas 추론값 좌표이용해서 찾아오기
-                  int centerDx = (int)(((result.getLocation().width()/4.f)/480.f) * 256);
-                  int centerDy = (int)(((result.getLocation().height()/4.f)/480.f) * 256);
-                  int[] dx = {0, 0, centerDx, 0, -centerDx}; // 중심, 북, 동, 남, 서
-                  int[] dy = {0, -centerDy, 0, centerDy, 0};
-                  //깊이값 단일 추론.
-                  //float midas_val = img_array[(256 - depth_x - 1) + (256 - depth_y - 1) * 256];
-                  //깊이값 다중 추론
-                  float[] midas_val = new float[5];
-                  for (int i = 0; i < 5; i++){
-                    midas_val[i] = img_array[(256 - depth_x - 1 + dx[i]) + (256 - depth_y - 1 + dy[i]) * 256];
-                  }
-                  float min_val = 100000f;
-                  float max_val = -100000f;
-                  int min_idx = -1;
-                  int max_idx = -1;
-                  for (int i = 0; i < 5; i++) {
-                    if (min_val <= midas_val[i]) {
-                       min_val = midas_val[i];
-                       min_idx = i;
-                    }
-                    if (max_val > midas_val[i]) {
-                      max_val = midas_val[i];
-                      max_idx = i;
-                    }
-                  }
-                  Log.d("min_max", "min_idx"+min_idx+", max_idx"+max_idx);
-                  float sum_val = 0;
-                  for (int i = 0; i < 5; i++){
-                    if (i == min_idx || i == max_idx) continue;
-                    sum_val = sum_val+midas_val[i];
-                  }
-                  float avg_val = sum_val/3f;
-
-                  float disparity = 0.144f * avg_val - 13.0f;
-                  float distance;
-                  if (disparity >= 0) {
-                    distance = 119.975f * 1397.f / disparity;//baseline * focal_length / disp;
-                  }
-                  else{
-                    distance = 168000f;   //최대값.
-                  }
-
-                  float distance_m = distance/1000.f;
-                  Log.d("midas", "x, y = ("+depth_x+", "+depth_y+"), val="+avg_val+", dist "+distance_m+"(m)" );
-
-                  // 사각형 그리기?
-                  canvas.drawRect(location, paint);
-                  cropToFrameTransform.mapRect(location);
-                  result.setLocation(location);
-
-                  // 거리 정보 입력.
-                  result.setDistance(distance_m);
-                  mappedRecognitions.add(result);
-
-                  // 탐지 객체 처리
-                  DetectedObj temp_obj = new DetectedObj(result.getTitle(),
-                          result.getLocation().centerX(),
-                          result.getLocation().centerY(),
-                          distance_m,
-                          result.getLocation().width() / 2,
-                          currentTime);
-
-                  temp_objects.add(temp_obj);
+        float disparity = 0.144f * avg_val - 13.0f;
+        float distance;
+        if (disparity >= 0) {
+          distance = 119.975f * 1397.f / disparity;//baseline * focal_length / disp;
+        }
+        else{
+          distance = 168000f;   //최대값.
+        }
 
-                }
-              }
+        float distance_m = distance/1000.f;
+        // 깊이 값의 분산을 거리 분산 (m^2)으로 변환: 거리 = K / disparity 의 기울기로 선형화
+        float distance_var = Float.NaN;
+        if (disparity > 0 && !Float.isNaN(var_val)) {
+          float slope = 119.975f * 1397.f * 0.144f / (disparity * disparity) / 1000.f;
+          distance_var = slope * slope * var_val;
+        }
+        Log.d("midas", "box = "+depthBox+", val="+avg_val+", var="+var_val+", dist "+distance_m+"(m), age "+slot.depthAge);
 
-              for (DetectedObj obj: valid_objects)
-              {
-                // 기존 객체와 매칭하는 부분
-                obj.traceObj(temp_objects,currentTime);
-              }
+        cropBoxes.add(new RectF(location));
+        slot.cropToFrame.mapRect(location);
+        result.setLocation(location);
 
-              for(int i=0;i<valid_objects.size();i++)
-              {
-                DetectedObj obj = valid_objects.get(i);
-                if (!obj.refresh(currentTime))
-                {
-                  // 기존 객체를 갱신 후 필요없는 객체는 제거
-                  valid_objects.remove(obj);
-                  i--;
-                }
-              }
+        // 거리 정보 입력.
+        result.setDistance(distance_m);
+        mappedRecognitions.add(result);
 
-              for (DetectedObj temp : temp_objects)
-              {
-                // 매칭되지 않은 새로운 객체를 전역리스트에 추가
-                if (temp.getState() == 0)
-                {
-                  temp.setId(idCnt++);
-                  valid_objects.add(temp);
-                }
-              }
+        // 탐지 객체 처리
+        DetectedObj temp_obj = new DetectedObj(result.getTitle(),
+                result.getLocation(),
+                distance_m,
+                distance_var,
+                slot.depthAge,
+                currentTime);
 
-              for (DetectedObj obj: valid_objects)
-              {
-                for (Classifier_Yolo.Recognition R: mappedRecognitions)
-                {
-                  // 기존 객체와 사각형 객체를 매칭하여 벡터 정보 넘겨줌
-                  if (obj.getX() == R.getLocation().centerX() && obj.getY() == R.getLocation().centerY() ){
-                    R.setDxDy(obj.getDx(), obj.getDy());
-                    break;
-                  }
-                }
-              }
+        temp_objects.add(temp_obj);
 
-              if (valid_objects.size()>0){
-                for (DetectedObj obj: valid_objects) {
-                  // tts 음성 안내 부분
-                  tts.setPitch(0.9f);
-                  tts.setSpeechRate(1.2f);
-                  if (is_in_roi(obj.getY(), obj.getX() + obj.getH()) && ((obj.getY() <= 240 && obj.getDy() < -2) || (obj.getY() > 240 && obj.getDy() >= +2))) {
-                    // 조건, (ROI 내부 && 사용자 방향으로 접근 && 고유객체당 2번)
-                    //if (obj.notice_Cnt != 0 && (currentTime - obj.last_notice_time) < 3000) {
-                    if (obj.notice && (currentTime - obj.last_notice_time) < 3000) {
-                      // 최근 {inverval_s}초 동안 알림했을경우 스킵.
-                      continue;
-                    }
-
-                    Log.d("isinroi", "x,y=(" + obj.getY() + "," + (obj.getX() + obj.getH()) + ")");
-                    //obj.notice_Cnt++;
-                    obj.notice = true;
-                    obj.last_notice_time = currentTime;
-
-                    String direction = (obj.getY() > 240f) ? "좌측" : "우측";
-                    String class_name = obj.getClassName();
-                    tts.speak(direction + " " + class_name, TextToSpeech.QUEUE_ADD, null);
-
-                    //vibrator.cancel();
-                    //vibrator.vibrate(500); // 0.5초간 진동
-                  }
-                }
-              }
-              /////////////////////////////////////////////////////////
-              /** TTS.setPitch(float pitch) : 음성 톤 높이 설정 (배수 설정)
-               *  TTS.setSpeechRate(float speechRate) : 읽는 속도 설정 (배수 설정)
-               *
-               *  TextToSpeech.QUEUE_FLUSH : 진행중인 음성 출력을 끊고 이번 TTS의 음성 출력을 한다.
-               *  TextToSpeech.QUEUE_ADD   : 진행중인 음성 출력이 끝난 후에 이번 TTS의 음성 출력을 진행한다. */
-              /////////////////////////////////////////////////////////
+      }
+    }
 
+    // 기존 객체와 매칭하는 부분: 같은 클래스, 게이트 안의 쌍 중 전체 비용이 최소가 되도록 배정
+    // 트랙 위치는 필터로 현재 시각까지 예측한 박스를 쓴다.
+    associateTracks(temp_objects, currentTime);
+    for (int i = 0; i < trackStore.size(); i++)
+    {
+      final int match = trackAssignment[i];
+      trackStore.get(i).traceObj(match >= 0 ? temp_objects.get(match) : null, currentTime);
+    }
 
+    // 기존 객체를 갱신 후 필요없는 객체는 제거
+    trackStore.removeStale(currentTime);
 
+    for (DetectedObj temp : temp_objects)
+    {
+      // 매칭되지 않은 새로운 객체를 추가 (가득 차면 가장 오래 보이지 않은 객체를 밀어낸다)
+      if (temp.getState() == 0)
+      {
+        trackStore.add(temp);
+      }
+    }
+
+    for (int i = 0; i < trackStore.size(); i++)
+    {
+      final DetectedObj obj = trackStore.get(i);
+      for (Classifier_Yolo.Recognition R: mappedRecognitions)
+      {
+        // 기존 객체와 사각형 객체를 매칭하여 벡터 정보와 필터링된 거리 넘겨줌
+        if (obj.getX() == R.getLocation().centerX() && obj.getY() == R.getLocation().centerY() ){
+          R.setDxDy(obj.getDx(), obj.getDy());
+          R.setVelocity(obj.getVelocityX(), obj.getVelocityY());
+          R.setDistance(obj.getFilteredD());
+          break;
+        }
+      }
+    }
+
+    for (int i = 0; i < trackStore.size(); i++) {
+      final DetectedObj obj = trackStore.get(i);
+      // 음성 안내 대상 선정 (실제 안내는 렌더 단계에서)
+      // 이번 프레임에 검출되지 않은 객체도 필터로 예측한 현재 위치로 판단한다.
+      final float objX = obj.getPredictedX(currentTime);
+      final float objY = obj.getPredictedY(currentTime);
+      if (is_in_roi(objY, objX + obj.getH()) && ((objY <= 240 && obj.getDy() < -2) || (objY > 240 && obj.getDy() >= +2))) {
+        // 조건, (ROI 내부 && 사용자 방향으로 접근 && 고유객체당 2번)
+        //if (obj.notice_Cnt != 0 && (currentTime - obj.last_notice_time) < 3000) {
+        if (obj.notice && (currentTime - obj.last_notice_time) < 3000) {
+          // 최근 {inverval_s}초 동안 알림했을경우 스킵.
+          continue;
+        }
+
+        Log.d("isinroi", "x,y=(" + objY + "," + (objX + obj.getH()) + ")");
+        //obj.notice_Cnt++;
+        obj.notice = true;
+        obj.last_notice_time = currentTime;
+
+        String direction = (objY > 240f) ? "좌측" : "우측";
+        String class_name = obj.getClassName();
+        slot.announcements.add(direction + " " + class_name);
+      }
+    }
+
+    // 다음 깊이 실행의 크롭 위치로 사용
+    latestDetections = cropBoxes.toArray(new RectF[0]);
+
+    tracker.trackResults(mappedRecognitions, slot.timestamp, currentTime);
+
+    // 깊이 맵은 이 단계에서만 읽으므로 바로 놓아 풀로 돌아갈 수 있게 한다.
+    slot.releaseDepth();
+    trackStore.publish(currentTime);
+    return true;
+  }
 
+  /**
+   * Fills trackAssignment with the detection index matched to every track in trackStore, or -1.
+   * Tracks are compared at their positions predicted for {@code timeMs}.
+   */
+  private void associateTracks(List<DetectedObj> detections, long timeMs) {
+    final int numTracks = trackStore.size();
+    final int numDetections = detections.size();
+    if (trackBoxes.length < numTracks) {
+      trackBoxes = new RectF[numTracks];
+      for (int i = 0; i < numTracks; ++i) {
+        trackBoxes[i] = new RectF();
+      }
+      trackClasses = new String[numTracks];
+      trackAssignment = new int[numTracks];
+    }
+    if (detectionBoxes.length < numDetections) {
+      detectionBoxes = new RectF[numDetections];
+      detectionClasses = new String[numDetections];
+    }
+    for (int i = 0; i < numTracks; ++i) {
+      trackStore.get(i).predictBox(timeMs, trackBoxes[i]);
+      trackClasses[i] = trackStore.get(i).getClassName();
+    }
+    for (int i = 0; i < numDetections; ++i) {
+      detectionBoxes[i] = detections.get(i).getBox();
+      detectionClasses[i] = detections.get(i).getClassName();
+    }
+    trackAssociator.associate(trackBoxes, trackClasses, numTracks,
+        detectionBoxes, detectionClasses, numDetections, trackAssignment);
+  }
 
-              tracker.trackResults(mappedRecognitions, currTimestamp);
-              trackingOverlay.postInvalidate();
+  // 알림/렌더 단계: 음성 안내와 화면 갱신
+  private boolean renderFrame(final FrameSlot slot) {
+    for (String announcement : slot.announcements) {
+      // tts 음성 안내 부분
+      tts.setPitch(0.9f);
+      tts.setSpeechRate(1.2f);
+      tts.speak(announcement, TextToSpeech.QUEUE_ADD, null);
 
+      //vibrator.cancel();
+      //vibrator.vibrate(500); // 0.5초간 진동
+    }
+    /////////////////////////////////////////////////////////
+    /** TTS.setPitch(float pitch) : 음성 톤 높이 설정 (배수 설정)
+     *  TTS.setSpeechRate(float speechRate) : 읽는 속도 설정 (배수 설정)
+     *
+     *  TextToSpeech.QUEUE_FLUSH : 진행중인 음성 출력을 끊고 이번 TTS의 음성 출력을 한다.
+     *  TextToSpeech.QUEUE_ADD   : 진행중인 음성 출력이 끝난 후에 이번 TTS의 음성 출력을 진행한다. */
+    /////////////////////////////////////////////////////////
 
-              computingDetection = false;
-              lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+    trackingOverlay.postInvalidate();
 
-              runOnUiThread(
-                  new Runnable() {
-                    @Override
-                    public void run() {
-                      //showResultsInTexture(img_array, imageSizeX, imageSizeY); // Midas 추론 결과를 화면에 띄움
-                      showCameraResolution(cropSize + "x" + cropSize);
-                      showRotationInfo(String.valueOf(sensorOrientation));
+    if (isDebug()) {
+      LOGGER.d("Pipeline occupancy: %s", getFramePipeline());
+    }
+    // 융합 단계가 발행한 추적 객체 스냅샷 (융합 단계를 막지 않는다)
+    for (TrackStore.Snapshot track : trackStore.getSnapshot()) {
+      Log.d("obj", "\t\t" + track);
+    }
 
-                      showFrameInfo(previewWidth + "x" + previewHeight);
-                      showCropInfo(imageSizeX + "x" + imageSizeY);
-                      showInference(lastProcessingTimeMs + "ms");
-                    }
-                  });
+    final int cropSize = slot.cropSize;
+    // 깊이 미리보기는 UI 스레드가 다 그리고 돌려줄 때까지 렌더러가 덮어쓰지 않는다.
+    // 이전 비트맵이 아직 그려지지 않았으면 이번 프레임은 미리보기를 건너뛴다.
+    final Bitmap depthPreview = SHOW_DEPTH_PREVIEW ? depthRenderer.acquireBitmap() : null;
+    runOnUiThread(
+        new Runnable() {
+          @Override
+          public void run() {
+            if (depthPreview != null) {
+              try {
+                showResultsInTexture(depthPreview); // Midas 추론 결과를 화면에 띄움
+              } finally {
+                depthRenderer.releaseBitmap(depthPreview);
+              }
             }
-            readyForNextImage();
+            showCameraResolution(cropSize + "x" + cropSize);
+            showRotationInfo(String.valueOf(sensorOrientation));
+
+            showFrameInfo(previewWidth + "x" + previewHeight);
+            showCropInfo(imageSizeX + "x" + imageSizeY);
+            showInference(lastProcessingTimeMs + "ms");
           }
         });
     return true;
@@ -460,32 +788,61 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
 
   @Override
   protected void onInferenceConfigurationChanged() {
-    if (rgbFrameBitmap == null) {
+    if (getFramePipeline() == null) {
       // Defer creation until we're getting camera frames.
       return;
     }
     final Device device = getDevice();
     final Model model = getModel();
     final int numThreads = getNumThreads();
-    runInBackground(() -> recreateClassifier(model, device, numThreads));
+    runInBackground(() -> recreateClassifier(model, device, getMidasThreads(numThreads)));
+  }
+
+  /**
+   * Rebuilds the frame pyramid geometry after the camera or either model changed: level 0 is the
+   * YOLO input, level 1 the MiDaS input, both cut from the same crop of the frame. Frames built with
+   * an older layout are dropped by the infer stage.
+   */
+  private void updatePyramidLayout() {
+    if (detector == null || classifier == null || frameToCropTransform == null) {
+      return;
+    }
+    pyramidLayout =
+        new FramePyramid.Layout(previewWidth, previewHeight, frameToCropTransform,
+            detector.getInputSize(), new Size(imageSizeX, imageSizeY));
+  }
+
+  /** Interpreter threads given to YOLO out of the configured total. */
+  private static int getYoloThreads(int totalThreads) {
+    return Math.max(1, Math.round(totalThreads * YOLO_THREAD_SHARE));
+  }
+
+  /** Interpreter threads given to MiDaS: whatever YOLO leaves, but at least one. */
+  private static int getMidasThreads(int totalThreads) {
+    return Math.max(1, totalThreads - getYoloThreads(totalThreads));
+  }
+
+  @Override
+  public synchronized void onDestroy() {
+    super.onDestroy();
+    yoloExecutor.shutdownNow();
+    midasExecutor.shutdownNow();
   }
 
   // Midas classifier 재생성
   private void recreateClassifier(Model model, Device device, int numThreads) {
+    synchronized (modelLock) {
+      recreateClassifierLocked(model, device, numThreads);
+    }
+  }
+
+  private void recreateClassifierLocked(Model model, Device device, int numThreads) {
+    depthScheduler.reset();
     if (classifier != null) {
       LOGGER.d("Closing classifier.");
       classifier.close();
       classifier = null;
     }
-    if (device == Device.GPU
-        && (model == Model.QUANTIZED_MOBILENET || model == Model.QUANTIZED_EFFICIENTNET)) {
-      LOGGER.d("Not creating classifier: GPU doesn't support quantized models.");
-      runOnUiThread(
-          () -> {
-            Toast.makeText(this, R.string.tfe_ic_gpu_quant_error, Toast.LENGTH_LONG).show();
-          });
-      return;
-    }
     try {
       LOGGER.d(
           "Creating classifier (model=%s, device=%s, numThreads=%d)", model, device, numThreads);
@@ -503,6 +860,9 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
     // Updates the input image size.
     imageSizeX = classifier.getImageSizeX();
     imageSizeY = classifier.getImageSizeY();
+    updatePyramidLayout();
+    depthCropMode = classifier.enableCropMode(DEPTH_CROP_SIZE);
+    depthRoiPolicy.reset();
   }
 
   /////////////////////////////////////////////////////////////////////
@@ -516,65 +876,70 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
     final int numThreads = Integer.parseInt(threads);
 
     handler.post(() -> {
-      if (modelIndex == currentModel && deviceIndex == currentDevice
-              && numThreads == currentNumThreads) {
-        return;
-      }
-      currentModel = modelIndex;
-      currentDevice = deviceIndex;
-      currentNumThreads = numThreads;
-
-      // Disable classifier while updating
-      if (detector != null) {
-        detector.close();
-        detector = null;
-      }
+      synchronized (modelLock) {
+        if (modelIndex == currentModel && deviceIndex == currentDevice
+                && numThreads == currentNumThreads) {
+          return;
+        }
+        currentModel = modelIndex;
+        currentDevice = deviceIndex;
+        currentNumThreads = numThreads;
+
+        // Disable classifier while updating
+        if (detector != null) {
+          detector.close();
+          detector = null;
+        }
 
-      // Lookup names of parameters.
-      String modelString = modelStrings.get(modelIndex);
-      String device = deviceStrings.get(deviceIndex);
+        // Lookup names of parameters.
+        String modelString = modelStrings.get(modelIndex);
+        String device = deviceStrings.get(deviceIndex);
 
-      LOGGER.i("Changing model to " + modelString + " device " + device);
+        LOGGER.i("Changing model to " + modelString + " device " + device);
 
-      // Try to load model.
+        // Try to load model.
 
-      try {
-        detector = DetectorFactory.getDetector(getAssets(), modelString);
-        // Customize the interpreter to the type of device we want to use.
-        if (detector == null) {
-          return;
+        try {
+          detector = DetectorFactory.getDetector(getAssets(), modelString);
+          // Customize the interpreter to the type of device we want to use.
+          if (detector == null) {
+            return;
+          }
+        }
+        catch(IOException e) {
+          e.printStackTrace();
+          LOGGER.e(e, "Exception in updateActiveModel()");
+          Toast toast =
+                  Toast.makeText(
+                          getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
+          toast.show();
+          finish();
         }
-      }
-      catch(IOException e) {
-        e.printStackTrace();
-        LOGGER.e(e, "Exception in updateActiveModel()");
-        Toast toast =
-                Toast.makeText(
-                        getApplicationContext(), "Classifier could not be initialized", Toast.LENGTH_SHORT);
-        toast.show();
-        finish();
-      }
 
-      if (device.equals("CPU")) {
-        detector.useCPU();
-      } else if (device.equals("GPU")) {
-        detector.useGpu();
-      } else if (device.equals("NNAPI")) {
-        detector.useNNAPI();
+        if (device.equals("CPU")) {
+          detector.useCPU();
+        } else if (device.equals("GPU")) {
+          detector.useGpu();
+        } else if (device.equals("NNAPI")) {
+          detector.useNNAPI();
+        }
+        detector.setNumThreads(getYoloThreads(numThreads));
+        detector.setDecodeThreads(DECODE_THREADS, YoloV5Classifier.MIN_PARALLEL_DECODE_ROWS);
+
+        int cropSize = detector.getInputSize();
+
+        frameToCropTransform =
+                ImageUtils.getTransformationMatrix(
+                        previewWidth, previewHeight,
+                        cropSize, cropSize,
+                        sensorOrientation, MAINTAIN_ASPECT);
+
+        cropToFrameTransform = new Matrix();
+        frameToCropTransform.invert(cropToFrameTransform);
+        updatePyramidLayout();
+        // 이전 입력 크기의 크롭 좌표이므로 다음 프레임은 새로 검출한다.
+        flowSource = null;
       }
-      detector.setNumThreads(numThreads);
-
-      int cropSize = detector.getInputSize();
-      croppedBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
-
-      frameToCropTransform =
-              ImageUtils.getTransformationMatrix(
-                      previewWidth, previewHeight,
-                      cropSize, cropSize,
-                      sensorOrientation, MAINTAIN_ASPECT);
-
-      cropToFrameTransform = new Matrix();
-      frameToCropTransform.invert(cropToFrameTransform);
     });
   }
 
@@ -586,7 +951,12 @@ public class ClassifierActivity extends CameraActivity implements OnImageAvailab
 
   @Override
   protected void setUseNNAPI(final boolean isChecked) {
-    runInBackground(() -> detector.setUseNNAPI(isChecked));
+    runInBackground(
+        () -> {
+          synchronized (modelLock) {
+            detector.setUseNNAPI(isChecked);
+          }
+        });
   }
 
   //@Override
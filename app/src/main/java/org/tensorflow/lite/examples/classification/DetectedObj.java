@@ -1,22 +1,41 @@
 package org.tensorflow.lite.examples.classification;
 
-import android.util.Log;
-import java.util.ArrayList;
+import android.graphics.RectF;
+import org.tensorflow.lite.examples.classification.tracking.MotionFilter;
+import org.tensorflow.lite.examples.classification.tracking.TrackHistory;
 
 public class DetectedObj {
+    // 트랙별 거리 필터 설정 (단위 m, ms)
+    private static final float DEPTH_PROCESS_NOISE = 0.00025f; // 1ms당 늘어나는 분산 (m^2), 약 0.5m/s 변화
+    private static final float DEPTH_MIN_VARIANCE = 0.01f; // 측정 분산 하한 (m^2)
+    private static final float DEPTH_UNKNOWN_VARIANCE = 100f; // 유효한 측정이 없을 때의 분산 (m^2)
+    // 이력 보관 설정: HISTORY_WINDOW_MS 동안의 샘플 (30FPS 기준 60개)
+    private static final long HISTORY_WINDOW_MS = 2000;
+    private static final int HISTORY_CAPACITY = 64;
+    // 트랙별 등속 칼만 필터 설정 (프레임 좌표 px, ms)
+    private static final float MOTION_ACCELERATION_NOISE = 1e-5f; // 가속도 잡음 밀도 (px^2/ms^3)
+    private static final float MOTION_MEASUREMENT_NOISE = 16f; // 박스 중심 측정 분산 (px^2), 약 4px
+    private static final float MOTION_INITIAL_VELOCITY_VARIANCE = 0.25f; // 새 트랙 속도 분산 ((px/ms)^2)
+
     private String className; // 객체 종류
     private int id = -1; // 객체 고유 번호
     public Long last_notice_time;
 
 
-    private int ALSize = 0;
-    private ArrayList<Float> xPos = new ArrayList<>(); // 위치 좌표 x (이미지 상에서는 y로 쓰임)
-    private ArrayList<Float> yPos = new ArrayList<>(); // 위치 좌표 y (이미지 상에서는 x로 쓰임)
-    private ArrayList<Float> depth = new ArrayList<>(); // 객체와의 거리
+    // 시간, 위치 좌표 x/y (이미지 상에서는 y/x로 쓰임), 객체와의 거리 (측정값) 이력
+    private final TrackHistory history = new TrackHistory(HISTORY_CAPACITY);
+    // 위치/속도 추정 (검출 사이의 임의 시각 위치 예측에 사용)
+    private final MotionFilter motion = new MotionFilter(
+            MOTION_ACCELERATION_NOISE, MOTION_MEASUREMENT_NOISE, MOTION_INITIAL_VELOCITY_VARIANCE);
+    private float depthVariance; // 마지막 측정값의 분산, 유효한 측정이 아니면 NaN
+    private long depthAge; // 마지막 측정에 쓰인 깊이 맵의 나이 (프레임)
+    private float filteredDepth; // 측정값들을 융합한 거리 추정값
+    private float filteredDepthVariance; // 추정값의 분산
 
+    private final RectF box = new RectF(); // 마지막으로 검출된 박스 (연관 비용 계산용)
     private float h = 0; // 위치 좌표로부터 중심점까지의 거리
-    private float dx = 0; // 방향 벡터 dx
-    private float dy = 0; // 방향 벡터 dy
+    private float dx = 0; // 방향 벡터 dx (필터 속도 x 300)
+    private float dy = 0; // 방향 벡터 dy (필터 속도 x 300, y 반대 방향)
 
     private int state = 0; // 새롭게 검출된 객체인가
     // 처음으로 발견된 객체이면 0
@@ -24,69 +43,37 @@ public class DetectedObj {
     // 2번 이상 추적된 객체이면 2 (전역 리스트의 원소 기준)
     // 검출이 안되는 상태이면 3
 
-    private ArrayList<Long> Time = new ArrayList<>(); // 프레임 간격 시간들 모음
     //private float totalTime = 0; // 정보 갱신을 위한 총 시간 (임계값보다 클 경우 갱신해주는 용도)
     //private float notDetectedTime = 0; // 객체가 연속적으로 검출되지 않은 시간
     public int notice_Cnt = 0;
     public boolean notice = false;
 
 
-    // 추적 함수
-    public void traceObj(ArrayList<DetectedObj> obj, long time){
-        double minDist = 10000.0;
-        int idx = -1;
-        boolean isDetected = false;
+    // 추적 함수: 연관 엔진(TrackAssociator)이 배정한 검출 객체로 정보를 갱신한다.
+    // 배정된 객체가 없으면 temp는 null이다.
+    public void traceObj(DetectedObj temp, long time){
         state = 2;
 
-        // 검출된 객체가 없을 경우
-        if(obj.size()==0){
-            // 정보 갱신 후 return
-            state = 3;
-            return;
-        }
-        // 검출된 객체가 있을 경우
-        else {
-            for (int i = 0; i < obj.size(); i++) { // 검출된 모든 객체와 비교
-                DetectedObj temp = obj.get(i); // 임시 리스트의 state는 0 또는 1이다.
-                if (className != temp.getClassName()) continue; // 다른 클래스일 때
-                if (temp.getState() == 1) continue; // 이미 추적이 된 물체일 때
-
-                double d = 0;
-                d = Math.pow(xPos.get(ALSize-1) - temp.getX(), 2.0) + Math.pow(yPos.get(ALSize-1) - temp.getY(), 2.0);
-                d = Math.sqrt(d);
-
-                if (d < minDist) { // 가장 가까운 객체 판별
-                    isDetected = true;
-                    minDist = d;
-                    idx = i;
-                }
-            }
-        }
-
-        // 검출된 동일한 클래스가 없을 경우
-        if(isDetected == false) {
+        // 배정된 검출 객체가 없을 경우
+        if(temp == null) {
             state = 3;
             return;
         }
-        // 검출된 동일한 클래스가 있을 경우 - 벡터 계산
+        // 배정된 검출 객체가 있을 경우 - 벡터 계산
         else {
-            DetectedObj temp = (DetectedObj) obj.get(idx); // 가장가까운 객체 선택
             temp.setState(1);
             float tx = temp.getX();
             float ty = temp.getY();
             float td = temp.getD();
-            dx = tx - xPos.get(ALSize-1);
-            dx /= time - Time.get(ALSize-1);
-            dx *= 300;
-            dy = yPos.get(ALSize-1) - ty;
-            dy /= time - Time.get(ALSize-1);
-            dy *= 300;
-            xPos.add(tx);
-            yPos.add(ty);
-            depth.add(td);
+            final long elapsed = time - history.getLastTime();
+            fuseDepth(td, temp.getDepthVariance(), temp.getDepthAge(), elapsed);
+            // 마지막 두 점의 차분 대신 칼만 필터로 추정한 속도 (px/ms)를 기존 단위로 환산
+            motion.update(time, tx, ty);
+            dx = motion.getVelocityX() * 300;
+            dy = -motion.getVelocityY() * 300;
+            history.add(time, tx, ty, td);
             h = temp.getH();
-            Time.add(time);
-            ALSize++;
+            box.set(temp.getBox());
         }
     }
 
@@ -96,45 +83,45 @@ public class DetectedObj {
             return true;
         }
 
-        //float fronttTime = Time.get(0); // 첫번째 값 반환
-        float totalTime = currentTime - Time.get(0);
-
-        // 최근 정보 갱신 작업 (임계 시간을 넘긴 경우 과거 정보 제거)
-        while(totalTime >= 2000) {
-            if(ALSize > 1)
-            {
-                Time.remove(0); // 첫번째 값 pop
-                xPos.remove(0);
-                yPos.remove(0);
-                depth.remove(0);
-                ALSize--;
-            }
-            else // 객체가 마지막으로 검출된 후 임계 시간이 자났기에 return 후 제거시켜준다.
-            {
-                return false;
-            }
-            totalTime = currentTime - Time.get(0);
-        }
-        return true;
+        // 최근 정보 갱신 작업 (임계 시간을 넘긴 과거 정보 제거)
+        // 마지막 정보까지 임계 시간이 지났으면 false를 반환하여 제거시켜준다.
+        return history.evictUntil(currentTime - HISTORY_WINDOW_MS);
     }
 
-    public void showInfo(long t){
-        Log.d("obj", "\t\tclass : "+String.format("%20s",className)+"(id:"+id+",state:"+state+", size:"+ALSize+") "
-                                        +" - (x,y)=("+(480-yPos.get(ALSize-1))+","+xPos.get(ALSize-1)+")"
-                                        +", (dx,dy)=("+dy+","+dx+")"
-                                        +", time="+(t-Time.get(0))+"ms"+", h="+h);
+    /**
+     * 새 거리 측정값을 추정값에 융합한다 (1차원 칼만 필터).
+     * 경과 시간만큼 추정값의 분산을 늘린 뒤, 측정 분산과의 비율로 가중 평균한다.
+     * 재사용된 깊이 맵의 측정은 새 정보가 적으므로 맵의 나이만큼 분산을 키운다.
+     *
+     * @param measurement 측정 거리 (m)
+     * @param variance    측정 분산 (m^2), 유효한 측정이 아니면 NaN
+     * @param age         측정에 쓰인 깊이 맵의 나이 (프레임)
+     * @param elapsedMs   마지막 갱신 이후 시간 (ms)
+     */
+    private void fuseDepth(float measurement, float variance, long age, long elapsedMs) {
+        filteredDepthVariance += DEPTH_PROCESS_NOISE * Math.max(0, elapsedMs);
+        if (Float.isNaN(variance)) {
+            // 깊이 영역 밖이거나 최대 거리: 예측만 한다
+            return;
+        }
+        float r = Math.max(DEPTH_MIN_VARIANCE, variance) * (1 + Math.max(0, age));
+        float gain = filteredDepthVariance / (filteredDepthVariance + r);
+        filteredDepth += gain * (measurement - filteredDepth);
+        filteredDepthVariance *= 1 - gain;
     }
 
     //////////////////////////////////////////////////////////////////////////////////
 
-    public DetectedObj(String className, float x, float y, float d, float h, long t) {
+    public DetectedObj(String className, RectF box, float d, float dVar, long dAge, long t) {
         this.className = className;
-        this.xPos.add(x);
-        this.yPos.add(y);
-        this.depth.add(d);
-        this.h = h;
-        this.Time.add(t);
-        ALSize = 1;
+        this.box.set(box);
+        this.history.add(t, box.centerX(), box.centerY(), d);
+        this.motion.reset(t, box.centerX(), box.centerY());
+        this.depthVariance = dVar;
+        this.depthAge = dAge;
+        this.filteredDepth = d;
+        this.filteredDepthVariance = Float.isNaN(dVar) ? DEPTH_UNKNOWN_VARIANCE : Math.max(DEPTH_MIN_VARIANCE, dVar);
+        this.h = box.width() / 2;
     }
 
     public String getClassName() {
@@ -145,17 +132,21 @@ public class DetectedObj {
         return id;
     }
 
-    public ArrayList<Float> getxPos() { return xPos; }
+    public TrackHistory getHistory() { return history; }
 
-    public float getX() { return xPos.get(ALSize-1); }
+    public float getX() { return history.getLastX(); }
 
-    public ArrayList<Float> getyPos() { return yPos; }
+    public float getY() { return history.getLastY(); }
 
-    public float getY() { return yPos.get(ALSize-1); }
+    public float getD() { return history.getLastDepth(); }
 
-    public ArrayList<Float> getDepth() { return depth; }
+    public float getDepthVariance() { return depthVariance; }
 
-    public float getD() { return depth.get(ALSize-1); }
+    public long getDepthAge() { return depthAge; }
+
+    public float getFilteredD() { return filteredDepth; }
+
+    public float getFilteredDVariance() { return filteredDepthVariance; }
 
     public float getDx() { return dx; }
 
@@ -163,11 +154,29 @@ public class DetectedObj {
 
     public float getH() { return h; }
 
+    public RectF getBox() { return box; }
+
+    // 필터로 예측한 time 시점의 중심 좌표 (검출이 없는 프레임에서도 사용 가능)
+    public float getPredictedX(long time) { return motion.predictX(time); }
+
+    public float getPredictedY(long time) { return motion.predictY(time); }
+
+    // 마지막 박스를 time 시점의 예측 중심으로 옮겨 out에 쓴다.
+    public void predictBox(long time, RectF out) {
+        out.set(box);
+        out.offset(motion.predictX(time) - box.centerX(), motion.predictY(time) - box.centerY());
+    }
+
+    // 필터 속도 (px/ms)
+    public float getVelocityX() { return motion.getVelocityX(); }
+
+    public float getVelocityY() { return motion.getVelocityY(); }
+
     public int getState() { return state; }
 
-    public String getInfo(){ return "id: "+id+", className: "+className+", pos: ("+xPos+", "+yPos+"), distance: "+depth; }
+    public String getInfo(){ return "id: "+id+", className: "+className+", pos: ("+getX()+", "+getY()+"), distance: "+getD()+", samples: "+history.size(); }
 
-    public int getALSize() {return ALSize; }
+    public int getALSize() {return history.size(); }
 
     //public float getNotDetectedTime() { return notDetectedTime; }
 
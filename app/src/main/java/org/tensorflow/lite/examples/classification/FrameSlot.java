@@ -0,0 +1,87 @@
+package org.tensorflow.lite.examples.classification;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Matrix;
+import java.util.ArrayList;
+import java.util.List;
+import org.tensorflow.lite.examples.classification.depth.DepthFrame;
+import org.tensorflow.lite.examples.classification.env.FramePyramid;
+import org.tensorflow.lite.examples.classification.tflite.Classifier_Yolo.Recognition;
+
+/**
+ * Preallocated storage for one camera frame on its way through the frame pipeline.
+ * <p>
+ * Every stage fills in its part and the slot is handed to the next stage; the buffers are reused
+ * once the frame leaves the pipeline.
+ */
+public class FrameSlot {
+  // 캡처 단계: 카메라 프레임 복사본
+  final byte[][] yuvBytes = new byte[3][];
+  int yRowStride;
+  int uvRowStride;
+  int uvPixelStride;
+  /** Whether yuvBytes holds separate Camera2 Y/U/V planes rather than one camera1 NV21 frame. */
+  boolean hasYuvPlanes;
+  long timestamp;
+  long captureTime;
+
+  // 변환 단계
+  /** Full RGB frame; only camera1 NV21 frames need it, so it is created on first use. */
+  private Bitmap rgbFrameBitmap;
+  private final int width;
+  private final int height;
+  /** Model inputs of this frame, shared by YOLO and MiDaS. */
+  final FramePyramid pyramid = new FramePyramid();
+
+  // 추론 단계
+  List<Recognition> results;
+  /** Most recent MiDaS output; it may come from an earlier frame. Retained while set. */
+  DepthFrame depth;
+  /** Frames since {@link #depth} was computed; 0 when it was computed on this frame. */
+  long depthAge;
+  Matrix cropToFrame;
+  int cropSize;
+
+  // 융합/추적 단계
+  final List<Recognition> mappedRecognitions = new ArrayList<>();
+  final List<String> announcements = new ArrayList<>();
+
+  FrameSlot(int width, int height) {
+    this.width = width;
+    this.height = height;
+  }
+
+  /** Full RGB frame to convert an NV21 frame into; allocated the first time it is asked for. */
+  Bitmap getRgbFrameBitmap() {
+    if (rgbFrameBitmap == null) {
+      rgbFrameBitmap = Bitmap.createBitmap(width, height, Config.ARGB_8888);
+    }
+    return rgbFrameBitmap;
+  }
+
+  byte[] getLuminance() {
+    return yuvBytes[0];
+  }
+
+  int getLuminanceStride() {
+    return yRowStride;
+  }
+
+  /** Lets go of {@link #depth} once the last stage reading it is done. */
+  void releaseDepth() {
+    if (depth != null) {
+      depth.release();
+      depth = null;
+    }
+  }
+
+  /** Drops the results of the previous frame held in this slot. */
+  void reset() {
+    results = null;
+    releaseDepth();
+    cropToFrame = null;
+    mappedRecognitions.clear();
+    announcements.clear();
+  }
+}
@@ -0,0 +1,142 @@
+package org.tensorflow.lite.examples.classification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The live tracks, owned by a single writer thread, with immutable snapshots for everyone else.
+ * <p>
+ * Only the writer (the fuse stage) may call the methods that read or change the tracks
+ * themselves; the {@link DetectedObj} instances are mutable and are never handed to other
+ * threads. After each frame the writer calls {@link #publish(long)}, which copies what readers
+ * need into {@link Snapshot}s and swaps them in as a new unmodifiable list. Readers call
+ * {@link #getSnapshot()} from any thread: they never lock, never block the writer and never see a
+ * track halfway through an update.
+ * <p>
+ * At most {@code capacity} tracks are kept. Adding a track to a full store evicts the one seen
+ * least recently, so tracks that are coasting without detections go before ones that are still
+ * being matched.
+ */
+public class TrackStore {
+  private final int capacity;
+  private final ArrayList<DetectedObj> tracks;
+  private int nextId;
+  private volatile List<Snapshot> snapshot = Collections.emptyList();
+
+  /** State of one track when it was published. */
+  public static final class Snapshot {
+    public final int id;
+    public final String className;
+    public final int state;
+    /** Center of the latest sample, in frame coordinates. */
+    public final float x;
+    public final float y;
+    public final float dx;
+    public final float dy;
+    /** Filtered velocity, px per ms. */
+    public final float velocityX;
+    public final float velocityY;
+    public final float h;
+    /** Filtered distance and its variance, m and m^2. */
+    public final float distance;
+    public final float distanceVariance;
+    public final int numSamples;
+    /** Time covered by the kept samples, ms. */
+    public final long trackedMs;
+
+    Snapshot(DetectedObj track, long time) {
+      id = track.getId();
+      className = track.getClassName();
+      state = track.getState();
+      x = track.getX();
+      y = track.getY();
+      dx = track.getDx();
+      dy = track.getDy();
+      velocityX = track.getVelocityX();
+      velocityY = track.getVelocityY();
+      h = track.getH();
+      distance = track.getFilteredD();
+      distanceVariance = track.getFilteredDVariance();
+      numSamples = track.getHistory().size();
+      trackedMs = time - track.getHistory().getTime(0);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(Locale.US,
+          "class : %20s(id:%d,state:%d, size:%d)  - (x,y)=(%s,%s), (dx,dy)=(%s,%s), time=%dms, "
+              + "h=%s, d=%s(±%s)",
+          className, id, state, numSamples, 480 - y, x, dy, dx, trackedMs, h, distance,
+          (float) Math.sqrt(distanceVariance));
+    }
+  }
+
+  /** @param capacity most tracks kept at once. */
+  public TrackStore(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    this.capacity = capacity;
+    tracks = new ArrayList<>(capacity);
+  }
+
+  /** Number of live tracks. Writer thread only. */
+  public int size() {
+    return tracks.size();
+  }
+
+  /** Live track {@code i}, from 0 to size() - 1. Writer thread only. */
+  public DetectedObj get(int i) {
+    return tracks.get(i);
+  }
+
+  /**
+   * Gives {@code track} a new id and starts keeping it, evicting the least recently seen track if
+   * the store is full. Writer thread only.
+   */
+  public void add(DetectedObj track) {
+    if (tracks.size() == capacity) {
+      int oldest = 0;
+      for (int i = 1; i < tracks.size(); ++i) {
+        if (tracks.get(i).getHistory().getLastTime()
+            < tracks.get(oldest).getHistory().getLastTime()) {
+          oldest = i;
+        }
+      }
+      tracks.remove(oldest);
+    }
+    track.setId(nextId++);
+    tracks.add(track);
+  }
+
+  /**
+   * Refreshes every track for {@code currentTime} and drops the ones that have gone stale; see
+   * {@link DetectedObj#refresh(long)}. Writer thread only.
+   */
+  public void removeStale(long currentTime) {
+    int kept = 0;
+    for (int i = 0; i < tracks.size(); ++i) {
+      final DetectedObj track = tracks.get(i);
+      if (track.refresh(currentTime)) {
+        tracks.set(kept++, track);
+      }
+    }
+    tracks.subList(kept, tracks.size()).clear();
+  }
+
+  /** Makes the current state of the tracks visible to readers. Writer thread only. */
+  public void publish(long time) {
+    final List<Snapshot> snapshots = new ArrayList<>(tracks.size());
+    for (final DetectedObj track : tracks) {
+      snapshots.add(new Snapshot(track, time));
+    }
+    snapshot = Collections.unmodifiableList(snapshots);
+  }
+
+  /** Tracks as of the latest {@link #publish(long)}; safe from any thread. */
+  public List<Snapshot> getSnapshot() {
+    return snapshot;
+  }
+}
@@ -0,0 +1,88 @@
+package org.tensorflow.lite.examples.classification.depth;
+
+import android.graphics.RectF;
+
+/**
+ * The result of one depth run: either a single full-frame region, or a few crop regions around
+ * detections, optionally backed by an older full-frame region for boxes outside every crop.
+ */
+public class DepthFrame {
+  private final DepthRegion[] regions;
+  private final boolean fullFrame;
+
+  private DepthFrame(DepthRegion[] regions, boolean fullFrame) {
+    this.regions = regions;
+    this.fullFrame = fullFrame;
+  }
+
+  public static DepthFrame fullFrame(DepthRegion region) {
+    return new DepthFrame(new DepthRegion[] {region}, true);
+  }
+
+  /**
+   * @param crops    regions computed on crops around detections.
+   * @param fallback full-frame region used for boxes no crop covers; may be null.
+   */
+  public static DepthFrame crops(DepthRegion[] crops, DepthRegion fallback) {
+    if (fallback == null) {
+      return new DepthFrame(crops, false);
+    }
+    final DepthRegion[] regions = new DepthRegion[crops.length + 1];
+    System.arraycopy(crops, 0, regions, 0, crops.length);
+    regions[crops.length] = fallback;
+    return new DepthFrame(regions, false);
+  }
+
+  /** Retains the map of every region, including the fallback; see {@link DepthMap#retain()}. */
+  public void retain() {
+    for (DepthRegion region : regions) {
+      region.getMap().retain();
+    }
+  }
+
+  /** Releases what {@link #retain()} retained. */
+  public void release() {
+    for (DepthRegion region : regions) {
+      region.getMap().release();
+    }
+  }
+
+  /**
+   * Returns the maps of a frame that nobody kept to the pool. Maps other holders still retain,
+   * such as a fallback region, are left alone.
+   */
+  public void discard() {
+    retain();
+    release();
+  }
+
+  public boolean isFullFrame() {
+    return fullFrame;
+  }
+
+  public int getNumRegions() {
+    return regions.length;
+  }
+
+  public DepthRegion getRegion(int i) {
+    return regions[i];
+  }
+
+  /**
+   * Region to read a box's depth from: the first one covering the whole box, else the first one
+   * covering its center, else null.
+   */
+  public DepthRegion find(RectF box) {
+    for (DepthRegion region : regions) {
+      if (region.covers(box)) {
+        return region;
+      }
+    }
+    for (DepthRegion region : regions) {
+      if (region.coversCenter(box)) {
+        return region;
+      }
+    }
+    return null;
+  }
+}
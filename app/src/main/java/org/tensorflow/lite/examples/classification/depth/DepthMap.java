@@ -0,0 +1,319 @@
+package org.tensorflow.lite.examples.classification.depth;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One MiDaS output with summed-area tables for constant-time box statistics.
+ * <p>
+ * The integral image (and, optionally, the integral of squares) is built once per depth
+ * inference; after that the mean and variance of any axis-aligned box cost four lookups each,
+ * whatever the box size, so every detection can use its whole box instead of a few probe points.
+ * Sums are kept in doubles: a 256x256 map of MiDaS disparities overflows float precision.
+ * The depth values themselves are only read while the tables are built, so the map can be built
+ * straight from the interpreter's output buffer and does not pin it.
+ * <p>
+ * A map of a quantized model is built from the uint8 codes and keeps its tables in codes, as exact
+ * int and long sums; only query results are dequantized, which is exact since dequantization is
+ * affine.
+ * <p>
+ * Maps obtained from a {@link DepthMapPool} are reference counted: every holder calls
+ * {@link #retain()} and later {@link #release()}, and the tables go back to the pool once the last
+ * holder lets go. A map built with a constructor is simply left to the garbage collector.
+ * <p>
+ * Box coordinates are continuous depth-map pixels: a box [left, right) x [top, bottom) covers
+ * every cell it touches, clipped to the map.
+ */
+public class DepthMap {
+  private final DepthMapPool pool;
+  private final AtomicInteger references = new AtomicInteger();
+  private int width;
+  private int height;
+  private boolean quantized;
+  private boolean withSquares;
+  /** (width + 1) x (height + 1) tables of a float map; row 0 and column 0 are zero. */
+  private double[] sum;
+  private double[] sumSquares;
+  /** The same tables of a quantized map, in codes. */
+  private int[] codeSum;
+  private long[] codeSumSquares;
+  private DepthTileHistogram tileHistogram;
+  private boolean withHistogram;
+  /** Dequantization of the tables: depth = scale * table value + offset. */
+  private float scale;
+  private float offset;
+
+  /**
+   * @param values      row-major depth values, width * height of them from the buffer's position
+   *                    on. Only read during construction.
+   * @param withSquares whether to also build the integral of squares, needed for variance.
+   * @param numBins     bins of the tile histograms used by {@link #getPercentile}, or 0 for none.
+   * @param tileSize    tile edge of those histograms, in cells.
+   */
+  public DepthMap(
+      FloatBuffer values, int width, int height, boolean withSquares, int numBins, int tileSize) {
+    this(null);
+    build(values, width, height, withSquares, numBins, tileSize);
+  }
+
+  /**
+   * Builds a map from the uint8 output of a quantized model.
+   *
+   * @param codes     row-major uint8 codes, width * height of them from the buffer's position on.
+   *                  Only read during construction.
+   * @param scale     depth of one code step.
+   * @param zeroPoint code of depth 0.
+   */
+  public DepthMap(ByteBuffer codes, float scale, int zeroPoint, int width, int height,
+      boolean withSquares, int numBins, int tileSize) {
+    this(null);
+    build(codes, scale, zeroPoint, width, height, withSquares, numBins, tileSize);
+  }
+
+  /** An empty map whose tables are recycled through {@code pool}. */
+  DepthMap(DepthMapPool pool) {
+    this.pool = pool;
+  }
+
+  /** Rebuilds the map from float depth values, reusing its tables when they are large enough. */
+  void build(
+      FloatBuffer values, int width, int height, boolean withSquares, int numBins, int tileSize) {
+    if (values.remaining() < width * height) {
+      throw new IllegalArgumentException(
+          "Depth map holds " + values.remaining() + " values, expected " + width * height);
+    }
+    this.width = width;
+    this.height = height;
+    this.withSquares = withSquares;
+    quantized = false;
+    scale = 1.0f;
+    offset = 0.0f;
+    final int stride = width + 1;
+    final int size = stride * (height + 1);
+    if (sum == null || sum.length < size) {
+      sum = new double[size];
+    }
+    if (withSquares && (sumSquares == null || sumSquares.length < size)) {
+      sumSquares = new double[size];
+    }
+
+    // Row 0 and column 0 may hold another map's sums.
+    for (int x = 0; x < stride; ++x) {
+      sum[x] = 0;
+      if (withSquares) {
+        sumSquares[x] = 0;
+      }
+    }
+    for (int y = 0; y < height; ++y) {
+      double rowSum = 0;
+      double rowSumSquares = 0;
+      final int src = values.position() + y * width;
+      final int above = y * stride + 1;
+      final int dst = above + stride;
+      sum[dst - 1] = 0;
+      if (withSquares) {
+        sumSquares[dst - 1] = 0;
+      }
+      for (int x = 0; x < width; ++x) {
+        final double v = values.get(src + x);
+        rowSum += v;
+        sum[dst + x] = sum[above + x] + rowSum;
+        if (withSquares) {
+          rowSumSquares += v * v;
+          sumSquares[dst + x] = sumSquares[above + x] + rowSumSquares;
+        }
+      }
+    }
+    withHistogram = numBins > 0;
+    if (withHistogram) {
+      if (tileHistogram == null || !tileHistogram.hasLayout(numBins, tileSize)) {
+        tileHistogram = new DepthTileHistogram(numBins, tileSize);
+      }
+      tileHistogram.build(values, width, height);
+    }
+  }
+
+  /** Rebuilds the map from uint8 codes, reusing its tables when they are large enough. */
+  void build(ByteBuffer codes, float scale, int zeroPoint, int width, int height,
+      boolean withSquares, int numBins, int tileSize) {
+    if (codes.remaining() < width * height) {
+      throw new IllegalArgumentException(
+          "Depth map holds " + codes.remaining() + " values, expected " + width * height);
+    }
+    if (width * height > Integer.MAX_VALUE / 255) {
+      throw new IllegalArgumentException("Depth map too large for int sums: " + width + "x" + height);
+    }
+    this.width = width;
+    this.height = height;
+    this.withSquares = withSquares;
+    quantized = true;
+    this.scale = scale;
+    offset = -scale * zeroPoint;
+    final int stride = width + 1;
+    final int size = stride * (height + 1);
+    if (codeSum == null || codeSum.length < size) {
+      codeSum = new int[size];
+    }
+    if (withSquares && (codeSumSquares == null || codeSumSquares.length < size)) {
+      codeSumSquares = new long[size];
+    }
+
+    // Row 0 and column 0 may hold another map's sums.
+    for (int x = 0; x < stride; ++x) {
+      codeSum[x] = 0;
+      if (withSquares) {
+        codeSumSquares[x] = 0;
+      }
+    }
+    for (int y = 0; y < height; ++y) {
+      int rowSum = 0;
+      long rowSumSquares = 0;
+      final int src = codes.position() + y * width;
+      final int above = y * stride + 1;
+      final int dst = above + stride;
+      codeSum[dst - 1] = 0;
+      if (withSquares) {
+        codeSumSquares[dst - 1] = 0;
+      }
+      for (int x = 0; x < width; ++x) {
+        final int q = codes.get(src + x) & 0xff;
+        rowSum += q;
+        codeSum[dst + x] = codeSum[above + x] + rowSum;
+        if (withSquares) {
+          rowSumSquares += q * q;
+          codeSumSquares[dst + x] = codeSumSquares[above + x] + rowSumSquares;
+        }
+      }
+    }
+    withHistogram = numBins > 0;
+    if (withHistogram) {
+      if (tileHistogram == null || !tileHistogram.hasLayout(numBins, tileSize)) {
+        tileHistogram = new DepthTileHistogram(numBins, tileSize);
+      }
+      tileHistogram.build(codes, scale, zeroPoint, width, height);
+    }
+  }
+
+  /** Adds a holder of this map. */
+  public void retain() {
+    references.incrementAndGet();
+  }
+
+  /** Drops a holder; the last one returns the tables to the pool the map came from, if any. */
+  public void release() {
+    final int remaining = references.decrementAndGet();
+    if (remaining < 0) {
+      throw new IllegalStateException("Depth map released more often than retained");
+    }
+    if (remaining == 0 && pool != null) {
+      pool.recycle(this);
+    }
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public boolean hasSquares() {
+    return withSquares;
+  }
+
+  /** Value of a single cell, with coordinates clamped to the map. */
+  public float get(int x, int y) {
+    final int cx = clamp(x, 0, width - 1);
+    final int cy = clamp(y, 0, height - 1);
+    return (float) (scale * boxSum(cx, cy, cx + 1, cy + 1) + offset);
+  }
+
+  /** Mean depth over a box, or NaN when the box lies entirely outside the map. */
+  public float getMean(float left, float top, float right, float bottom) {
+    if (right <= 0 || bottom <= 0 || left >= width || top >= height) {
+      return Float.NaN;
+    }
+    final int x0 = clamp((int) Math.floor(left), 0, width - 1);
+    final int y0 = clamp((int) Math.floor(top), 0, height - 1);
+    final int x1 = clamp((int) Math.ceil(right), x0 + 1, width);
+    final int y1 = clamp((int) Math.ceil(bottom), y0 + 1, height);
+    return (float) (scale * boxSum(x0, y0, x1, y1) / ((x1 - x0) * (y1 - y0)) + offset);
+  }
+
+  /**
+   * Variance of the depth over a box, or NaN when the box lies entirely outside the map.
+   *
+   * @throws IllegalStateException if the map was built without the integral of squares.
+   */
+  public float getVariance(float left, float top, float right, float bottom) {
+    if (!withSquares) {
+      throw new IllegalStateException("Depth map was built without the integral of squares");
+    }
+    if (right <= 0 || bottom <= 0 || left >= width || top >= height) {
+      return Float.NaN;
+    }
+    final int x0 = clamp((int) Math.floor(left), 0, width - 1);
+    final int y0 = clamp((int) Math.floor(top), 0, height - 1);
+    final int x1 = clamp((int) Math.ceil(right), x0 + 1, width);
+    final int y1 = clamp((int) Math.ceil(bottom), y0 + 1, height);
+    final double n = (x1 - x0) * (y1 - y0);
+    final double mean = boxSum(x0, y0, x1, y1) / n;
+    final double variance = boxSumSquares(x0, y0, x1, y1) / n - mean * mean;
+    return (float) (scale * scale * Math.max(0, variance));
+  }
+
+  /**
+   * Depth at the given percentile (0 to 1) of a box, e.g. 0.5 for the median, or NaN when the box
+   * lies entirely outside the map. Values are quantized into the histogram's bins and interpolated
+   * inside the bin, so the result is accurate to a fraction of a bin.
+   *
+   * Percentile queries share a scratch histogram, so they must all come from one thread.
+   *
+   * @throws IllegalStateException if the map was built without tile histograms.
+   */
+  public float getPercentile(float left, float top, float right, float bottom, float percentile) {
+    if (!withHistogram) {
+      throw new IllegalStateException("Depth map was built without tile histograms");
+    }
+    if (right <= 0 || bottom <= 0 || left >= width || top >= height) {
+      return Float.NaN;
+    }
+    final int x0 = clamp((int) Math.floor(left), 0, width - 1);
+    final int y0 = clamp((int) Math.floor(top), 0, height - 1);
+    final int x1 = clamp((int) Math.ceil(right), x0 + 1, width);
+    final int y1 = clamp((int) Math.ceil(bottom), y0 + 1, height);
+    return tileHistogram.getPercentile(x0, y0, x1, y1, percentile);
+  }
+
+  private static int clamp(int v, int min, int max) {
+    return Math.max(min, Math.min(max, v));
+  }
+
+  /** Sum over cells [x0, x1) x [y0, y1); x1 and y1 may equal width and height. */
+  private double boxSum(int x0, int y0, int x1, int y1) {
+    final int stride = width + 1;
+    final int a = y0 * stride + x0;
+    final int b = y0 * stride + x1;
+    final int c = y1 * stride + x0;
+    final int d = y1 * stride + x1;
+    if (quantized) {
+      return (long) codeSum[d] - codeSum[b] - codeSum[c] + codeSum[a];
+    }
+    return sum[d] - sum[b] - sum[c] + sum[a];
+  }
+
+  /** Sum of squares over the same cells as {@link #boxSum}. */
+  private double boxSumSquares(int x0, int y0, int x1, int y1) {
+    final int stride = width + 1;
+    final int a = y0 * stride + x0;
+    final int b = y0 * stride + x1;
+    final int c = y1 * stride + x0;
+    final int d = y1 * stride + x1;
+    if (quantized) {
+      return codeSumSquares[d] - codeSumSquares[b] - codeSumSquares[c] + codeSumSquares[a];
+    }
+    return sumSquares[d] - sumSquares[b] - sumSquares[c] + sumSquares[a];
+  }
+}
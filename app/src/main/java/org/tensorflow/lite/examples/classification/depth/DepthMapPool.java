@@ -0,0 +1,49 @@
+package org.tensorflow.lite.examples.classification.depth;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Recycles depth maps once nobody holds them, so a depth run rebuilds old summed-area tables and
+ * tile histograms in place instead of allocating about a megabyte of them.
+ * <p>
+ * A map comes out of {@link #obtain} with no holders. Whoever keeps it across frames (the depth
+ * scheduler, a frame slot) retains it, usually through {@link DepthFrame#retain()}, and releases
+ * it when done; the last release puts it back here. At most {@code capacity} idle maps are kept,
+ * the rest are left to the garbage collector. Maps may be obtained and released on any thread.
+ */
+public class DepthMapPool {
+  private final ArrayBlockingQueue<DepthMap> free;
+
+  /** @param capacity most idle maps kept for reuse. */
+  public DepthMapPool(int capacity) {
+    free = new ArrayBlockingQueue<>(capacity);
+  }
+
+  /** A map of float depth values, as built by the matching {@link DepthMap} constructor. */
+  public DepthMap obtain(
+      FloatBuffer values, int width, int height, boolean withSquares, int numBins, int tileSize) {
+    final DepthMap map = take();
+    map.build(values, width, height, withSquares, numBins, tileSize);
+    return map;
+  }
+
+  /** A map of uint8 codes, as built by the matching {@link DepthMap} constructor. */
+  public DepthMap obtain(ByteBuffer codes, float scale, int zeroPoint, int width, int height,
+      boolean withSquares, int numBins, int tileSize) {
+    final DepthMap map = take();
+    map.build(codes, scale, zeroPoint, width, height, withSquares, numBins, tileSize);
+    return map;
+  }
+
+  /** Called by a map whose last holder released it. */
+  void recycle(DepthMap map) {
+    free.offer(map);
+  }
+
+  private DepthMap take() {
+    final DepthMap map = free.poll();
+    return map != null ? map : new DepthMap(this);
+  }
+}
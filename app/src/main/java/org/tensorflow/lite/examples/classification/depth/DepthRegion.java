@@ -0,0 +1,69 @@
+package org.tensorflow.lite.examples.classification.depth;
+
+import android.graphics.Matrix;
+import android.graphics.RectF;
+
+/**
+ * A depth map together with the part of the detector crop it covers.
+ * <p>
+ * Boxes are given in detector crop coordinates and mapped onto the map by {@code cropToMap}.
+ * MiDaS depth is only relative, and its scale depends on what the network saw, so maps computed
+ * on small crops carry a {@code scale} that aligns them with the last full-frame map.
+ */
+public class DepthRegion {
+  private final DepthMap map;
+  private final Matrix cropToMap;
+  private final RectF coverage;
+  private final float scale;
+
+  /**
+   * @param map       the depth map.
+   * @param cropToMap transformation from detector crop coordinates to map cells.
+   * @param coverage  area of the detector crop the map covers, in detector crop coordinates.
+   * @param scale     factor applied to every depth value read from the map.
+   */
+  public DepthRegion(DepthMap map, Matrix cropToMap, RectF coverage, float scale) {
+    this.map = map;
+    this.cropToMap = cropToMap;
+    this.coverage = coverage;
+    this.scale = scale;
+  }
+
+  public DepthMap getMap() {
+    return map;
+  }
+
+  public RectF getCoverage() {
+    return coverage;
+  }
+
+  public float getScale() {
+    return scale;
+  }
+
+  public boolean covers(RectF box) {
+    return coverage.contains(box);
+  }
+
+  public boolean coversCenter(RectF box) {
+    return coverage.contains(box.centerX(), box.centerY());
+  }
+
+  /** Maps a box from detector crop coordinates to map cells. */
+  public void mapBox(RectF box, RectF out) {
+    cropToMap.mapRect(out, box);
+  }
+
+  /** Percentile of the depth over a box in map cells, see {@link DepthMap#getPercentile}. */
+  public float getPercentile(RectF mapped, float percentile) {
+    return scale * map.getPercentile(mapped.left, mapped.top, mapped.right, mapped.bottom, percentile);
+  }
+
+  public float getMean(RectF mapped) {
+    return scale * map.getMean(mapped.left, mapped.top, mapped.right, mapped.bottom);
+  }
+
+  public float getVariance(RectF mapped) {
+    return scale * scale * map.getVariance(mapped.left, mapped.top, mapped.right, mapped.bottom);
+  }
+}
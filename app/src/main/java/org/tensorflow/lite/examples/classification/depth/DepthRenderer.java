@@ -0,0 +1,207 @@
+package org.tensorflow.lite.examples.classification.depth;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Turns MiDaS output into a preview Bitmap cheaply enough to leave on during field tests.
+ * <p>
+ * Every {@code step}-th value of every {@code step}-th row is normalized to the map's range and
+ * looked up in a 256-entry ARGB colormap; the colors go into one reused int[] and from there into
+ * a Bitmap with a single setPixels call. The uint8 output of a quantized model is drawn from its
+ * codes, without dequantizing it.
+ * <p>
+ * Two Bitmaps are recycled, and the one being drawn on screen is lent out: {@link #acquireBitmap()}
+ * hands the latest one over and {@link #releaseBitmap} gives it back once it has been drawn.
+ * {@link #render} never writes a lent Bitmap, however long the reader keeps it, and nothing else is
+ * lent until it comes back.
+ * <p>
+ * {@link #render} must only be called from one thread; the other methods may be called from any.
+ */
+public class DepthRenderer {
+  /** Jet colormap control points, low to high: dark blue, blue, cyan, yellow, red, dark red. */
+  private static final float[] JET_POSITIONS = {0.0f, 0.125f, 0.375f, 0.625f, 0.875f, 1.0f};
+  private static final int[] JET_COLORS = {
+      0xff000080, 0xff0000ff, 0xff00ffff, 0xffffff00, 0xffff0000, 0xff800000
+  };
+
+  private final int[] colormap;
+  private final int step;
+  private final Bitmap[] bitmaps = new Bitmap[2];
+  private int[] pixels = new int[0];
+  /** Color of every uint8 code, rebuilt for the range of each quantized map. */
+  private final int[] codeColors = new int[256];
+  /** Guards {@link #latest} and {@link #lent}. */
+  private final Object lock = new Object();
+  /** Most recently completed Bitmap, or null while it is being redrawn. */
+  private Bitmap latest;
+  /** Bitmap handed out by {@link #acquireBitmap()} and not yet released. */
+  private Bitmap lent;
+
+  /**
+   * @param colormap 256 ARGB colors, for the lowest to the highest value of a map.
+   * @param step     only every step-th value in each direction is drawn; 1 for full resolution.
+   */
+  public DepthRenderer(int[] colormap, int step) {
+    if (colormap.length != 256) {
+      throw new IllegalArgumentException("Colormap needs 256 entries: " + colormap.length);
+    }
+    this.colormap = colormap;
+    this.step = Math.max(1, step);
+  }
+
+  /** Black to white. */
+  public static int[] grayscaleColormap() {
+    final int[] colormap = new int[256];
+    for (int v = 0; v < 256; ++v) {
+      colormap[v] = 0xff000000 | (v << 16) | (v << 8) | v;
+    }
+    return colormap;
+  }
+
+  /** Blue for far to red for near, as MiDaS values grow towards the camera. */
+  public static int[] jetColormap() {
+    final int[] colormap = new int[256];
+    for (int v = 0, segment = 0; v < 256; ++v) {
+      final float t = v / 255.0f;
+      while (t > JET_POSITIONS[segment + 1]) {
+        ++segment;
+      }
+      final float f = (t - JET_POSITIONS[segment])
+          / (JET_POSITIONS[segment + 1] - JET_POSITIONS[segment]);
+      colormap[v] = lerp(JET_COLORS[segment], JET_COLORS[segment + 1], f);
+    }
+    return colormap;
+  }
+
+  /**
+   * Draws a map of {@code width} x {@code height} values, row-major from the buffer's position;
+   * the buffer itself is left untouched.
+   *
+   * @return the Bitmap drawn into; the caller may read it until its next {@link #render} call.
+   */
+  public Bitmap render(FloatBuffer values, int width, int height) {
+    final int outWidth = (width + step - 1) / step;
+    final int outHeight = (height + step - 1) / step;
+    if (pixels.length != outWidth * outHeight) {
+      pixels = new int[outWidth * outHeight];
+    }
+    final int base = values.position();
+
+    float min = Float.POSITIVE_INFINITY;
+    float max = Float.NEGATIVE_INFINITY;
+    for (int y = 0; y < height; y += step) {
+      final int row = base + y * width;
+      for (int x = 0; x < width; x += step) {
+        final float v = values.get(row + x);
+        min = Math.min(min, v);
+        max = Math.max(max, v);
+      }
+    }
+    final float scale = max > min ? 255.0f / (max - min) : 0.0f;
+
+    for (int y = 0, i = 0; y < height; y += step) {
+      final int row = base + y * width;
+      for (int x = 0; x < width; x += step, ++i) {
+        pixels[i] = colormap[(int) ((values.get(row + x) - min) * scale)];
+      }
+    }
+
+    return publish(outWidth, outHeight);
+  }
+
+  /**
+   * Draws a map of uint8 codes, like {@link #render(FloatBuffer, int, int)}. Dequantization is
+   * increasing and affine, so the codes normalize to the same colors as the depths would.
+   */
+  public Bitmap render(ByteBuffer codes, int width, int height) {
+    final int outWidth = (width + step - 1) / step;
+    final int outHeight = (height + step - 1) / step;
+    if (pixels.length != outWidth * outHeight) {
+      pixels = new int[outWidth * outHeight];
+    }
+    final int base = codes.position();
+
+    int min = 255;
+    int max = 0;
+    for (int y = 0; y < height; y += step) {
+      final int row = base + y * width;
+      for (int x = 0; x < width; x += step) {
+        final int q = codes.get(row + x) & 0xff;
+        min = Math.min(min, q);
+        max = Math.max(max, q);
+      }
+    }
+    for (int q = min; q <= max; ++q) {
+      codeColors[q] = colormap[max > min ? (q - min) * 255 / (max - min) : 0];
+    }
+
+    for (int y = 0, i = 0; y < height; y += step) {
+      final int row = base + y * width;
+      for (int x = 0; x < width; x += step, ++i) {
+        pixels[i] = codeColors[codes.get(row + x) & 0xff];
+      }
+    }
+    return publish(outWidth, outHeight);
+  }
+
+  /** Copies {@link #pixels} into a recycled Bitmap that is not lent out and makes it the latest. */
+  private Bitmap publish(int outWidth, int outHeight) {
+    final int target;
+    synchronized (lock) {
+      // At most one Bitmap is lent. Otherwise keep the latest one readable while the other is drawn.
+      final Bitmap avoid = lent != null ? lent : latest;
+      target = bitmaps[0] != null && bitmaps[0] == avoid ? 1 : 0;
+      if (bitmaps[target] != null && bitmaps[target] == latest) {
+        latest = null;
+      }
+    }
+    Bitmap bitmap = bitmaps[target];
+    if (bitmap == null || bitmap.getWidth() != outWidth || bitmap.getHeight() != outHeight) {
+      bitmap = Bitmap.createBitmap(outWidth, outHeight, Config.ARGB_8888);
+      bitmaps[target] = bitmap;
+    }
+    bitmap.setPixels(pixels, 0, outWidth, 0, 0, outWidth, outHeight);
+    synchronized (lock) {
+      latest = bitmap;
+    }
+    return bitmap;
+  }
+
+  /**
+   * Lends out the Bitmap of the latest {@link #render} call until {@link #releaseBitmap} returns
+   * it. Returns null before the first call, while the latest one is being redrawn, or while the
+   * previous one is still lent; the caller then simply skips drawing.
+   */
+  public Bitmap acquireBitmap() {
+    synchronized (lock) {
+      if (latest == null || lent != null) {
+        return null;
+      }
+      lent = latest;
+      return lent;
+    }
+  }
+
+  /** Gives back a Bitmap from {@link #acquireBitmap()} once it is no longer drawn. */
+  public void releaseBitmap(Bitmap bitmap) {
+    synchronized (lock) {
+      if (bitmap != lent) {
+        throw new IllegalArgumentException("Bitmap was not lent by this renderer");
+      }
+      lent = null;
+    }
+  }
+
+  private static int lerp(int from, int to, float f) {
+    int color = 0xff000000;
+    for (int shift = 0; shift < 24; shift += 8) {
+      final int a = (from >> shift) & 0xff;
+      final int b = (to >> shift) & 0xff;
+      color |= Math.round(a + (b - a) * f) << shift;
+    }
+    return color;
+  }
+}
@@ -0,0 +1,90 @@
+package org.tensorflow.lite.examples.classification.depth;
+
+import android.graphics.RectF;
+
+/**
+ * Chooses between a full-frame depth run and a batch of crops around the latest detections.
+ * <p>
+ * Every detection gets a square crop, padded on each side by {@code padding} times its larger
+ * edge so the surroundings MiDaS needs for context stay in view. Crops are used when there are
+ * detections, no more than {@code maxCrops} of them, and their crops together cover at most
+ * {@code maxAreaFraction} of the frame; otherwise the whole frame is cheaper or needed anyway.
+ * Every {@code fullFrameInterval}-th run is full frame regardless, which keeps the reference that
+ * crop depths are aligned to fresh, and picks up objects that appeared outside the crops.
+ */
+public class DepthRoiPolicy {
+  private final float padding;
+  private final float minCropSize;
+  private final int maxCrops;
+  private final float maxAreaFraction;
+  private final int fullFrameInterval;
+  private int runsSinceFullFrame = Integer.MAX_VALUE;
+
+  /**
+   * @param padding           padding on each side, as a fraction of the box's larger edge.
+   * @param minCropSize       smallest crop edge in image pixels.
+   * @param maxCrops          most crops per run.
+   * @param maxAreaFraction   largest fraction of the frame the crops may cover together.
+   * @param fullFrameInterval a full-frame run is forced at least every this many runs.
+   */
+  public DepthRoiPolicy(float padding, float minCropSize, int maxCrops, float maxAreaFraction,
+      int fullFrameInterval) {
+    this.padding = padding;
+    this.minCropSize = minCropSize;
+    this.maxCrops = maxCrops;
+    this.maxAreaFraction = maxAreaFraction;
+    this.fullFrameInterval = fullFrameInterval;
+  }
+
+  public int getMaxCrops() {
+    return maxCrops;
+  }
+
+  /** Makes the next run full frame, e.g. after the depth model changed. */
+  public void reset() {
+    runsSinceFullFrame = Integer.MAX_VALUE;
+  }
+
+  /**
+   * Plans the next depth run; call once per run.
+   *
+   * @param boxes       latest detections, in pixels of the image the crops are cut from.
+   * @param frameWidth  image width.
+   * @param frameHeight image height.
+   * @param out         receives the crops in image pixels; needs room for getMaxCrops() entries.
+   * @return the number of crops written to {@code out}, or 0 for a full-frame run.
+   */
+  public int selectCrops(RectF[] boxes, int frameWidth, int frameHeight, RectF[] out) {
+    final int numCrops = planCrops(boxes, frameWidth, frameHeight, out);
+    runsSinceFullFrame = numCrops == 0 ? 0 : runsSinceFullFrame + 1;
+    return numCrops;
+  }
+
+  private int planCrops(RectF[] boxes, int frameWidth, int frameHeight, RectF[] out) {
+    if (boxes == null
+        || boxes.length == 0
+        || boxes.length > maxCrops
+        || runsSinceFullFrame >= fullFrameInterval - 1) {
+      return 0;
+    }
+    final float maxEdge = Math.min(frameWidth, frameHeight);
+    float area = 0;
+    for (int i = 0; i < boxes.length; ++i) {
+      final RectF box = boxes[i];
+      final float padded = Math.max(box.width(), box.height()) * (1 + 2 * padding);
+      final float edge = Math.min(maxEdge, Math.max(minCropSize, padded));
+      // Keep the crop square and inside the frame by shifting it rather than clipping it.
+      final float left = Math.max(0, Math.min(frameWidth - edge, box.centerX() - edge / 2));
+      final float top = Math.max(0, Math.min(frameHeight - edge, box.centerY() - edge / 2));
+      if (out[i] == null) {
+        out[i] = new RectF();
+      }
+      out[i].set(left, top, left + edge, top + edge);
+      area += edge * edge;
+    }
+    if (area > maxAreaFraction * frameWidth * frameHeight) {
+      return 0;
+    }
+    return boxes.length;
+  }
+}
@@ -0,0 +1,136 @@
+package org.tensorflow.lite.examples.classification.depth;
+
+/**
+ * Decides on which frames MiDaS actually runs, and keeps the latest depth map for the others.
+ * <p>
+ * Depth changes much more slowly than detections, so the map is refreshed every {@code interval}
+ * frames, or sooner when the scene moves. Motion is measured as the mean absolute difference
+ * between a small luma thumbnail of the current frame and the one taken when the map was last
+ * refreshed; the thumbnail is sampled straight from the Y plane, so the check costs a few
+ * thousand byte reads per frame.
+ * <p>
+ * The scheduler holds the depth frames it keeps: it retains them when they arrive and releases
+ * them once they are replaced.
+ */
+public class DepthScheduler {
+  private final int interval;
+  private final float motionThreshold;
+  private final int thumbWidth;
+  private final int thumbHeight;
+  /** Luma thumbnail of the current frame and of the frame the depth map was computed on. */
+  private int[] currentThumb;
+  private int[] referenceThumb;
+
+  private DepthFrame lastDepth;
+  private DepthFrame lastFullFrame;
+  private long lastDepthFrame = -1;
+  private long lastDepthTime;
+
+  /**
+   * @param interval        maximum number of frames between two MiDaS runs.
+   * @param motionThreshold mean absolute luma difference (0-255) that triggers an early run.
+   * @param thumbWidth      width of the luma thumbnail used for motion detection.
+   * @param thumbHeight     height of the luma thumbnail used for motion detection.
+   */
+  public DepthScheduler(int interval, float motionThreshold, int thumbWidth, int thumbHeight) {
+    this.interval = Math.max(1, interval);
+    this.motionThreshold = motionThreshold;
+    this.thumbWidth = thumbWidth;
+    this.thumbHeight = thumbHeight;
+    currentThumb = new int[thumbWidth * thumbHeight];
+    referenceThumb = new int[thumbWidth * thumbHeight];
+  }
+
+  /**
+   * Whether depth should be recomputed for this frame.
+   *
+   * @param luminance Y plane of the frame.
+   * @param rowStride row stride of the Y plane.
+   * @param width     frame width.
+   * @param height    frame height.
+   * @param frame     monotonically increasing frame number.
+   */
+  public boolean shouldRun(byte[] luminance, int rowStride, int width, int height, long frame) {
+    sampleThumbnail(luminance, rowStride, width, height, currentThumb);
+    if (lastDepth == null || frame - lastDepthFrame >= interval) {
+      return true;
+    }
+    return getMotion() >= motionThreshold;
+  }
+
+  /**
+   * Records a fresh depth map computed on {@code frame}; the thumbnail from the last
+   * {@link #shouldRun} call becomes the motion reference.
+   */
+  public void onDepthComputed(DepthFrame depth, long frame, long timeMs) {
+    depth.retain();
+    if (lastDepth != null) {
+      lastDepth.release();
+    }
+    lastDepth = depth;
+    if (depth.isFullFrame()) {
+      depth.retain();
+      if (lastFullFrame != null) {
+        lastFullFrame.release();
+      }
+      lastFullFrame = depth;
+    }
+    lastDepthFrame = frame;
+    lastDepthTime = timeMs;
+    final int[] swap = referenceThumb;
+    referenceThumb = currentThumb;
+    currentThumb = swap;
+  }
+
+  /** Forgets the current map, e.g. after the depth model changed. */
+  public void reset() {
+    if (lastDepth != null) {
+      lastDepth.release();
+    }
+    if (lastFullFrame != null) {
+      lastFullFrame.release();
+    }
+    lastDepth = null;
+    lastFullFrame = null;
+    lastDepthFrame = -1;
+  }
+
+  /** Most recent depth map, or null before the first run. */
+  public DepthFrame getLastDepth() {
+    return lastDepth;
+  }
+
+  /** Most recent full-frame depth map, or null before the first full-frame run. */
+  public DepthFrame getLastFullFrame() {
+    return lastFullFrame;
+  }
+
+  /** Number of frames since the most recent depth map was computed. */
+  public long getAgeFrames(long frame) {
+    return lastDepth == null ? -1 : frame - lastDepthFrame;
+  }
+
+  /** Milliseconds since the most recent depth map was computed. */
+  public long getAgeMs(long nowMs) {
+    return lastDepth == null ? -1 : nowMs - lastDepthTime;
+  }
+
+  /** Mean absolute luma difference between the last sampled frame and the reference frame. */
+  public float getMotion() {
+    long sum = 0;
+    for (int i = 0; i < currentThumb.length; ++i) {
+      sum += Math.abs(currentThumb[i] - referenceThumb[i]);
+    }
+    return sum / (float) currentThumb.length;
+  }
+
+  /** Point-samples the Y plane at the center of every thumbnail cell. */
+  private void sampleThumbnail(byte[] luminance, int rowStride, int width, int height, int[] out) {
+    for (int ty = 0, i = 0; ty < thumbHeight; ++ty) {
+      final int row = ((2 * ty + 1) * height / (2 * thumbHeight)) * rowStride;
+      for (int tx = 0; tx < thumbWidth; ++tx, ++i) {
+        out[i] = 0xff & luminance[row + (2 * tx + 1) * width / (2 * thumbWidth)];
+      }
+    }
+  }
+}
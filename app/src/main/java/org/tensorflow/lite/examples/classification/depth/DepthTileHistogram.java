@@ -0,0 +1,212 @@
+package org.tensorflow.lite.examples.classification.depth;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Per-tile histograms of a quantized depth map, for box percentiles without sorting.
+ * <p>
+ * Depth values are quantized into {@code numBins} bins between the map's minimum and maximum, and
+ * every {@code tileSize} x {@code tileSize} tile keeps the histogram of its bins. A box histogram
+ * is the sum of the tiles the box fully covers plus the few cells along its border, so a query
+ * costs O(bins * tiles + perimeter * tileSize) instead of a sort of the whole box. The tables are
+ * built once per depth map and shared by every detection of every frame that uses that map; a
+ * pooled map rebuilds them in place.
+ * <p>
+ * The uint8 output of a quantized model is binned by its codes, and only the percentile found is
+ * dequantized.
+ * <p>
+ * Queries share a scratch histogram, so an instance must only be queried from one thread.
+ */
+public class DepthTileHistogram {
+  private final int numBins;
+  private final int tileSize;
+  private int width;
+  private int height;
+  private int tilesX;
+  private int tilesY;
+  private float min;
+  private float binWidth;
+  /** Bin of every cell, row-major. */
+  private byte[] cellBins = new byte[0];
+  /** Histogram of every tile, (tileY * tilesX + tileX) * numBins + bin. */
+  private int[] tileHistograms = new int[0];
+  private final int[] scratch;
+
+  /**
+   * @param values   row-major depth values from the buffer's position on.
+   * @param numBins  number of quantization bins, at most 256.
+   * @param tileSize tile edge in cells.
+   */
+  public DepthTileHistogram(
+      FloatBuffer values, int width, int height, int numBins, int tileSize) {
+    this(numBins, tileSize);
+    build(values, width, height);
+  }
+
+  /**
+   * @param codes     row-major uint8 codes from the buffer's position on.
+   * @param scale     depth of one code step.
+   * @param zeroPoint code of depth 0.
+   * @param numBins   number of quantization bins, at most 256.
+   * @param tileSize  tile edge in cells.
+   */
+  public DepthTileHistogram(ByteBuffer codes, float scale, int zeroPoint, int width, int height,
+      int numBins, int tileSize) {
+    this(numBins, tileSize);
+    build(codes, scale, zeroPoint, width, height);
+  }
+
+  /** An empty histogram, to be filled by one of the build methods. */
+  DepthTileHistogram(int numBins, int tileSize) {
+    if (numBins < 1 || numBins > 256) {
+      throw new IllegalArgumentException("Bin count must be between 1 and 256: " + numBins);
+    }
+    this.numBins = numBins;
+    this.tileSize = tileSize;
+    scratch = new int[numBins];
+  }
+
+  /** Whether a rebuild with these settings can reuse this instance. */
+  boolean hasLayout(int numBins, int tileSize) {
+    return this.numBins == numBins && this.tileSize == tileSize;
+  }
+
+  /** Rebuilds the histograms from float depth values, reusing the tables when large enough. */
+  void build(FloatBuffer values, int width, int height) {
+    resize(width, height);
+    final int offset = values.position();
+    float lo = Float.POSITIVE_INFINITY;
+    float hi = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < width * height; ++i) {
+      final float v = values.get(offset + i);
+      lo = Math.min(lo, v);
+      hi = Math.max(hi, v);
+    }
+    min = lo;
+    binWidth = hi > lo ? (hi - lo) / numBins : 1.0f;
+
+    final float scale = 1.0f / binWidth;
+    for (int i = 0; i < width * height; ++i) {
+      cellBins[i] =
+          (byte) Math.min(numBins - 1, (int) ((values.get(offset + i) - min) * scale));
+    }
+    countTiles();
+  }
+
+  /** Rebuilds the histograms from uint8 codes, reusing the tables when large enough. */
+  void build(ByteBuffer codes, float scale, int zeroPoint, int width, int height) {
+    resize(width, height);
+    final int offset = codes.position();
+    int lo = 255;
+    int hi = 0;
+    for (int i = 0; i < width * height; ++i) {
+      final int q = codes.get(offset + i) & 0xff;
+      lo = Math.min(lo, q);
+      hi = Math.max(hi, q);
+    }
+    // A code q stands for the depths [q - 0.5, q + 0.5), so the bins span [lo - 0.5, hi + 0.5);
+    // a bin is never narrower than one code, whose cells could otherwise only fill its first part.
+    final float codesPerBin = Math.max(1.0f, (hi - lo + 1) / (float) numBins);
+    min = scale * (lo - 0.5f - zeroPoint);
+    binWidth = scale * codesPerBin;
+
+    final float binsPerCode = 1.0f / codesPerBin;
+    for (int i = 0; i < width * height; ++i) {
+      final int q = codes.get(offset + i) & 0xff;
+      cellBins[i] = (byte) Math.min(numBins - 1, (int) ((q - lo) * binsPerCode));
+    }
+    countTiles();
+  }
+
+  private void resize(int width, int height) {
+    this.width = width;
+    this.height = height;
+    tilesX = (width + tileSize - 1) / tileSize;
+    tilesY = (height + tileSize - 1) / tileSize;
+    if (cellBins.length < width * height) {
+      cellBins = new byte[width * height];
+    }
+    final int numCounts = tilesX * tilesY * numBins;
+    if (tileHistograms.length < numCounts) {
+      tileHistograms = new int[numCounts];
+    } else {
+      Arrays.fill(tileHistograms, 0, numCounts, 0);
+    }
+  }
+
+  /** Fills the tile histograms from the cell bins. */
+  private void countTiles() {
+    for (int y = 0, i = 0; y < height; ++y) {
+      final int tileRow = (y / tileSize) * tilesX;
+      for (int x = 0; x < width; ++x, ++i) {
+        tileHistograms[(tileRow + x / tileSize) * numBins + (cellBins[i] & 0xff)]++;
+      }
+    }
+  }
+
+  public int getNumBins() {
+    return numBins;
+  }
+
+  /**
+   * Returns the {@code percentile} (0 to 1) of the cells [x0, x1) x [y0, y1), interpolated
+   * linearly inside its bin. The box must be non-empty and inside the map.
+   */
+  public float getPercentile(int x0, int y0, int x1, int y1, float percentile) {
+    final int[] histogram = scratch;
+    Arrays.fill(histogram, 0);
+
+    // Tiles the box covers completely; the last tile may be cut short by the map edge.
+    final int tx0 = (x0 + tileSize - 1) / tileSize;
+    final int ty0 = (y0 + tileSize - 1) / tileSize;
+    final int tx1 = x1 == width ? tilesX : x1 / tileSize;
+    final int ty1 = y1 == height ? tilesY : y1 / tileSize;
+    final boolean hasTiles = tx0 < tx1 && ty0 < ty1;
+
+    if (hasTiles) {
+      for (int ty = ty0; ty < ty1; ++ty) {
+        for (int tx = tx0; tx < tx1; ++tx) {
+          final int base = (ty * tilesX + tx) * numBins;
+          for (int b = 0; b < numBins; ++b) {
+            histogram[b] += tileHistograms[base + b];
+          }
+        }
+      }
+    }
+
+    // Border cells that are not part of a covered tile.
+    final int innerX0 = hasTiles ? tx0 * tileSize : x1;
+    final int innerX1 = hasTiles ? Math.min(width, tx1 * tileSize) : x1;
+    final int innerY0 = hasTiles ? ty0 * tileSize : y1;
+    final int innerY1 = hasTiles ? Math.min(height, ty1 * tileSize) : y1;
+    for (int y = y0; y < y1; ++y) {
+      final int row = y * width;
+      if (y >= innerY0 && y < innerY1) {
+        for (int x = x0; x < innerX0; ++x) {
+          histogram[cellBins[row + x] & 0xff]++;
+        }
+        for (int x = innerX1; x < x1; ++x) {
+          histogram[cellBins[row + x] & 0xff]++;
+        }
+      } else {
+        for (int x = x0; x < x1; ++x) {
+          histogram[cellBins[row + x] & 0xff]++;
+        }
+      }
+    }
+
+    final int count = (x1 - x0) * (y1 - y0);
+    final float rank = Math.max(0.0f, Math.min(1.0f, percentile)) * count;
+    int cumulative = 0;
+    for (int b = 0; b < numBins; ++b) {
+      final int n = histogram[b];
+      if (n > 0 && cumulative + n >= rank) {
+        return min + (b + (rank - cumulative) / n) * binWidth;
+      }
+      cumulative += n;
+    }
+    return min + numBins * binWidth;
+  }
+}
@@ -0,0 +1,221 @@
+package org.tensorflow.lite.examples.classification.env;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs camera frames through a fixed sequence of stages, one thread per stage.
+ * <p>
+ * Frames live in a fixed ring of preallocated slots. The producer takes a free slot with
+ * {@link #acquire()}, fills it and hands it over with {@link #submit}. Every stage reads from its
+ * own small bounded queue and blocks on the next one when it is full, so a slow stage holds back
+ * the stages before it instead of piling up work. Only the entry drops frames: when the first
+ * queue is full, the frame waiting there is replaced by the newer one (latest wins), so the camera
+ * never waits and the pipeline always works on the freshest frame it can take. Different frames
+ * can be in different stages at the same time, so throughput is bounded by the slowest stage
+ * rather than by the sum of all stages.
+ *
+ * @param <T> slot type; slots are reused, so a stage must not keep references into one after it
+ *     has passed it on.
+ */
+public class FramePipeline<T> {
+  private static final Logger LOGGER = new Logger();
+
+  /** One step of the pipeline. */
+  public interface Stage<T> {
+    /**
+     * Processes a frame in place.
+     *
+     * @return false to drop the frame here; its slot goes straight back to the free ring.
+     */
+    boolean process(T frame);
+  }
+
+  private final String[] names;
+  private final Stage<T>[] stages;
+  private final ArrayBlockingQueue<T>[] queues;
+  private final ArrayBlockingQueue<T> freeSlots;
+  private final Thread[] threads;
+
+  // Occupancy counters, per stage.
+  private final AtomicInteger[] busy;
+  private final AtomicLong[] processed;
+  private final AtomicLong dropped = new AtomicLong();
+
+  private volatile boolean running = true;
+
+  /**
+   * Number of slots that guarantees {@link #acquire()} always finds one: one per stage being
+   * processed, one per queue entry and one being filled by the producer.
+   */
+  public static int requiredSlots(int numStages, int queueDepth) {
+    return numStages * (queueDepth + 1) + 1;
+  }
+
+  /**
+   * @param name       prefix of the stage thread names.
+   * @param slots      preallocated frame slots; all of them start out free.
+   * @param queueDepth capacity of every stage's input queue, usually 1 or 2.
+   * @param names      name of every stage, for threads and counters.
+   * @param stages     stages in pipeline order.
+   */
+  @SuppressWarnings("unchecked")
+  public FramePipeline(String name, T[] slots, int queueDepth, String[] names, Stage<T>[] stages) {
+    if (names.length != stages.length || stages.length == 0) {
+      throw new IllegalArgumentException("Every stage needs exactly one name");
+    }
+    if (queueDepth < 1) {
+      throw new IllegalArgumentException("Queue depth must be at least 1");
+    }
+    this.names = names;
+    this.stages = stages;
+    queues = new ArrayBlockingQueue[stages.length];
+    busy = new AtomicInteger[stages.length];
+    processed = new AtomicLong[stages.length];
+    for (int s = 0; s < stages.length; ++s) {
+      queues[s] = new ArrayBlockingQueue<>(queueDepth);
+      busy[s] = new AtomicInteger();
+      processed[s] = new AtomicLong();
+    }
+    freeSlots = new ArrayBlockingQueue<>(slots.length);
+    for (T slot : slots) {
+      freeSlots.add(slot);
+    }
+
+    threads = new Thread[stages.length];
+    for (int s = 0; s < stages.length; ++s) {
+      final int stage = s;
+      threads[s] =
+          new Thread(
+              new Runnable() {
+                @Override
+                public void run() {
+                  runStage(stage);
+                }
+              },
+              name + "-" + names[s]);
+      threads[s].setDaemon(true);
+      threads[s].start();
+    }
+  }
+
+  /**
+   * Returns a free slot to fill, or null when every slot is in use and the frame has to be
+   * dropped. Must be followed by {@link #submit} or {@link #release}.
+   */
+  public T acquire() {
+    T slot = freeSlots.poll();
+    if (slot == null) {
+      // Reuse the frame still waiting at the entry; it is about to be superseded anyway.
+      slot = queues[0].poll();
+      if (slot != null) {
+        dropped.incrementAndGet();
+      }
+    }
+    return slot;
+  }
+
+  /** Hands a filled slot to the first stage, replacing a frame already waiting there. */
+  public void submit(T slot) {
+    if (!running) {
+      freeSlots.offer(slot);
+      return;
+    }
+    while (!queues[0].offer(slot)) {
+      final T stale = queues[0].poll();
+      if (stale != null) {
+        dropped.incrementAndGet();
+        freeSlots.offer(stale);
+      }
+    }
+  }
+
+  /** Returns an acquired slot without processing it. */
+  public void release(T slot) {
+    freeSlots.offer(slot);
+  }
+
+  public int getNumStages() {
+    return stages.length;
+  }
+
+  public String getStageName(int stage) {
+    return names[stage];
+  }
+
+  /** Frames waiting in front of a stage. */
+  public int getQueued(int stage) {
+    return queues[stage].size();
+  }
+
+  /** Whether a stage is processing a frame right now. */
+  public boolean isBusy(int stage) {
+    return busy[stage].get() > 0;
+  }
+
+  /** Frames a stage has finished, including the ones it dropped. */
+  public long getProcessed(int stage) {
+    return processed[stage].get();
+  }
+
+  /** Frames replaced at the entry before the first stage got to them. */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  public int getFreeSlots() {
+    return freeSlots.size();
+  }
+
+  /** Stops every stage thread; frames still queued are discarded. */
+  public void close() {
+    running = false;
+    for (Thread thread : threads) {
+      thread.interrupt();
+    }
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder();
+    for (int s = 0; s < stages.length; ++s) {
+      sb.append(names[s])
+          .append('[')
+          .append(getQueued(s))
+          .append(isBusy(s) ? "+1" : "+0")
+          .append(' ')
+          .append(getProcessed(s))
+          .append("] ");
+    }
+    return sb.append("free ").append(getFreeSlots()).append(" dropped ").append(getDropped()).toString();
+  }
+
+  private void runStage(int s) {
+    final ArrayBlockingQueue<T> in = queues[s];
+    final ArrayBlockingQueue<T> out = s + 1 < stages.length ? queues[s + 1] : null;
+    try {
+      while (running) {
+        final T slot = in.take();
+        busy[s].incrementAndGet();
+        boolean keep = false;
+        try {
+          keep = stages[s].process(slot);
+        } catch (final RuntimeException e) {
+          LOGGER.e(e, "Stage %s failed, dropping frame", names[s]);
+        } finally {
+          busy[s].decrementAndGet();
+          processed[s].incrementAndGet();
+        }
+        if (keep && out != null) {
+          // Blocks while the next stage is behind: back-pressure instead of unbounded queues.
+          out.put(slot);
+        } else {
+          freeSlots.offer(slot);
+        }
+      }
+    } catch (InterruptedException e) {
+      // close() was called.
+    }
+  }
+}
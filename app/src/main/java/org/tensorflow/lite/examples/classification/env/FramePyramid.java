@@ -0,0 +1,183 @@
+package org.tensorflow.lite.examples.classification.env;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.RectF;
+import android.util.Size;
+
+/**
+ * Model-input-sized images of one camera frame, all cut from the same crop.
+ * <p>
+ * Level 0 is the frame cropped, rotated and scaled by {@code frameToCrop}, i.e. the detector input;
+ * it is sampled once per frame straight from the YUV planes, or drawn from the RGB frame. Every
+ * further level is a nearest-neighbour downscale of level 0. All levels therefore share one
+ * geometry: a point (x, y) of level 0 is at (x * w / cropSize, y * h / cropSize) in a level of
+ * w x h, with no rotation or flip in between, so detector boxes map onto depth pixels by a scale.
+ * <p>
+ * A pyramid is built by one thread and may then be read by others; the shared {@link Layout} must
+ * only be used to build one pyramid at a time.
+ */
+public class FramePyramid {
+  /** Geometry of a pyramid, shared by every frame of one camera and model configuration. */
+  public static class Layout {
+    private final Matrix frameToCrop;
+    private final int cropSize;
+    private final int[] widths;
+    private final int[] heights;
+    /** For every level above 0, the level 0 pixel sampled for each of its pixels. */
+    private final int[][] parentIndex;
+    private final YuvCropSampler sampler;
+
+    /**
+     * @param frameWidth  camera frame width.
+     * @param frameHeight camera frame height.
+     * @param frameToCrop transformation from frame to level 0 coordinates.
+     * @param cropSize    edge of level 0.
+     * @param levels      sizes of the further levels.
+     */
+    public Layout(int frameWidth, int frameHeight, Matrix frameToCrop, int cropSize,
+        Size... levels) {
+      this.frameToCrop = new Matrix(frameToCrop);
+      this.cropSize = cropSize;
+      widths = new int[levels.length + 1];
+      heights = new int[levels.length + 1];
+      parentIndex = new int[levels.length + 1][];
+      widths[0] = cropSize;
+      heights[0] = cropSize;
+      for (int level = 1; level <= levels.length; ++level) {
+        final int width = levels[level - 1].getWidth();
+        final int height = levels[level - 1].getHeight();
+        widths[level] = width;
+        heights[level] = height;
+        final int[] index = new int[width * height];
+        for (int y = 0, i = 0; y < height; ++y) {
+          final int sy = Math.min(cropSize - 1, (int) ((y + 0.5f) * cropSize / height));
+          for (int x = 0; x < width; ++x, ++i) {
+            index[i] = sy * cropSize + Math.min(cropSize - 1, (int) ((x + 0.5f) * cropSize / width));
+          }
+        }
+        parentIndex[level] = index;
+      }
+      sampler = new YuvCropSampler(frameWidth, frameHeight, cropSize, cropSize, frameToCrop);
+    }
+
+    public int getNumLevels() {
+      return widths.length;
+    }
+
+    public int getWidth(int level) {
+      return widths[level];
+    }
+
+    public int getHeight(int level) {
+      return heights[level];
+    }
+
+    public int getCropSize() {
+      return cropSize;
+    }
+
+    /** Transformation from level 0 coordinates to the pixels of {@code level}. */
+    public Matrix getCropToLevel(int level) {
+      final Matrix matrix = new Matrix();
+      matrix.setScale(widths[level] / (float) cropSize, heights[level] / (float) cropSize);
+      return matrix;
+    }
+  }
+
+  private Layout layout;
+  private int[][] levels;
+  /** Level 0 as a Bitmap, only allocated for frames drawn from an RGB frame. */
+  private Bitmap cropBitmap;
+  private Canvas cropCanvas;
+  private int[] regionX = new int[0];
+  private int[] regionY = new int[0];
+
+  /** Layout this pyramid was last built with, or null before the first build. */
+  public Layout getLayout() {
+    return layout;
+  }
+
+  /** Pixels of a level, ARGB_8888 row-major. */
+  public int[] getLevel(int level) {
+    return levels[level];
+  }
+
+  /** Builds the pyramid from Camera2 YUV420 planes, without converting the full frame. */
+  public void buildFromYuv(Layout layout, byte[] yData, byte[] uData, byte[] vData,
+      int yRowStride, int uvRowStride, int uvPixelStride) {
+    allocate(layout);
+    layout.sampler.sample(yData, uData, vData, yRowStride, uvRowStride, uvPixelStride, levels[0]);
+    downscale();
+  }
+
+  /** Builds the pyramid from an RGB frame of the layout's frame size. */
+  public void buildFromBitmap(Layout layout, Bitmap frame) {
+    allocate(layout);
+    final int cropSize = layout.cropSize;
+    if (cropBitmap == null || cropBitmap.getWidth() != cropSize) {
+      cropBitmap = Bitmap.createBitmap(cropSize, cropSize, Config.ARGB_8888);
+      cropCanvas = new Canvas(cropBitmap);
+    }
+    cropCanvas.drawBitmap(frame, layout.frameToCrop, null);
+    cropBitmap.getPixels(levels[0], 0, cropSize, 0, 0, cropSize, cropSize);
+    downscale();
+  }
+
+  /**
+   * Samples a region of level 0 at {@code width} x {@code height}, nearest neighbour, into
+   * {@code out} from {@code offset} on. Parts of the region outside level 0 repeat its edge.
+   */
+  public void sampleRegion(RectF region, int width, int height, int[] out, int offset) {
+    if (regionX.length < width) {
+      regionX = new int[width];
+    }
+    if (regionY.length < height) {
+      regionY = new int[height];
+    }
+    final int cropSize = layout.cropSize;
+    final float scaleX = region.width() / width;
+    final float scaleY = region.height() / height;
+    for (int x = 0; x < width; ++x) {
+      regionX[x] = clamp((int) (region.left + (x + 0.5f) * scaleX), cropSize);
+    }
+    for (int y = 0; y < height; ++y) {
+      regionY[y] = clamp((int) (region.top + (y + 0.5f) * scaleY), cropSize) * cropSize;
+    }
+    final int[] source = levels[0];
+    for (int y = 0, i = offset; y < height; ++y) {
+      final int row = regionY[y];
+      for (int x = 0; x < width; ++x, ++i) {
+        out[i] = source[row + regionX[x]];
+      }
+    }
+  }
+
+  private static int clamp(int v, int size) {
+    return Math.max(0, Math.min(size - 1, v));
+  }
+
+  private void allocate(Layout layout) {
+    if (this.layout == layout) {
+      return;
+    }
+    levels = new int[layout.getNumLevels()][];
+    for (int level = 0; level < levels.length; ++level) {
+      levels[level] = new int[layout.widths[level] * layout.heights[level]];
+    }
+    this.layout = layout;
+  }
+
+  private void downscale() {
+    final int[] source = levels[0];
+    for (int level = 1; level < levels.length; ++level) {
+      final int[] index = layout.parentIndex[level];
+      final int[] target = levels[level];
+      for (int i = 0; i < index.length; ++i) {
+        target[i] = source[index[i]];
+      }
+    }
+  }
+}
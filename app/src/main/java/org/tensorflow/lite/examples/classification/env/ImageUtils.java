@@ -94,6 +94,7 @@ public class ImageUtils {
 
   }
 
+  /** Per-pixel reference conversion; camera1 frames go through {@link Yuv420Converter}. */
   public static void convertYUV420SPToARGB8888(byte[] input, int width, int height, int[] output) {
     final int frameSize = width * height;
     for (int j = 0, yp = 0; j < height; j++) {
@@ -113,7 +114,7 @@ public class ImageUtils {
     }
   }
 
-  private static int YUV2RGB(int y, int u, int v) {
+  static int YUV2RGB(int y, int u, int v) {
     // Adjust and check YUV values
     y = (y - 16) < 0 ? 0 : (y - 16);
     u -= 128;
@@ -137,6 +138,10 @@ public class ImageUtils {
     return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
   }
 
+  /**
+   * Per-pixel reference conversion of separate Y/U/V planes for {@link Yuv420Converter}; Camera2
+   * preview frames are sampled by FramePyramid instead.
+   */
   public static void convertYUV420ToARGB8888(
       byte[] yData,
       byte[] uData,
@@ -0,0 +1,271 @@
+package org.tensorflow.lite.examples.classification.env;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Table-driven NV21 to ARGB_8888 converter for camera1 frames.
+ * <p>
+ * Compared to {@link ImageUtils#convertYUV420SPToARGB8888}, the per-pixel multiplies are replaced
+ * by per-channel contribution tables, each 2x2 block is converted together because it shares one
+ * chroma sample, and rows can be striped across worker threads. Channels are clamped through a
+ * lookup table after the fixed-point shift, which is equivalent to clamping before it, so the
+ * output is bit-exact with ImageUtils. {@link #matchesReference} checks that on a real frame;
+ * in compatibility mode the converter simply delegates to ImageUtils.
+ */
+public class Yuv420Converter {
+  private static final Logger LOGGER = new Logger();
+
+  // Fixed-point contributions of each 8-bit sample, in the same 2^10 scale as ImageUtils.YUV2RGB.
+  private static final int[] Y_TABLE = new int[256];
+  private static final int[] RV_TABLE = new int[256];
+  private static final int[] GV_TABLE = new int[256];
+  private static final int[] GU_TABLE = new int[256];
+  private static final int[] BU_TABLE = new int[256];
+
+  // Maps (channel >> 10) to [0, 255]; the channel sums stay within [-260, 540] before shifting.
+  private static final int CLAMP_OFFSET = 384;
+  private static final int[] CLAMP_TABLE = new int[1024];
+
+  static {
+    for (int i = 0; i < 256; ++i) {
+      Y_TABLE[i] = 1192 * Math.max(i - 16, 0);
+      RV_TABLE[i] = 1634 * (i - 128);
+      GV_TABLE[i] = -833 * (i - 128);
+      GU_TABLE[i] = -400 * (i - 128);
+      BU_TABLE[i] = 2066 * (i - 128);
+    }
+    for (int i = 0; i < CLAMP_TABLE.length; ++i) {
+      CLAMP_TABLE[i] = Math.max(0, Math.min(255, i - CLAMP_OFFSET));
+    }
+  }
+
+  private final int numStripes;
+  private final ExecutorService executor;
+  private final List<Future<?>> pending = new ArrayList<>();
+  private boolean compatibilityMode = false;
+
+  /** @param numThreads threads converting a frame, including the caller; 1 converts inline. */
+  public Yuv420Converter(int numThreads) {
+    numStripes = Math.max(1, numThreads);
+    executor =
+        numStripes > 1
+            ? Executors.newFixedThreadPool(numStripes - 1, new ConverterThreadFactory())
+            : null;
+  }
+
+  /** When enabled, frames are converted by the original per-pixel ImageUtils routines. */
+  public void setCompatibilityMode(boolean compatibilityMode) {
+    this.compatibilityMode = compatibilityMode;
+  }
+
+  public boolean isCompatibilityMode() {
+    return compatibilityMode;
+  }
+
+  /** Drop-in replacement for {@link ImageUtils#convertYUV420ToARGB8888}. */
+  public void convertYUV420ToARGB8888(
+      byte[] yData,
+      byte[] uData,
+      byte[] vData,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out) {
+    if (compatibilityMode) {
+      ImageUtils.convertYUV420ToARGB8888(
+          yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride, out);
+      return;
+    }
+    convert(yData, uData, 0, vData, 0, width, height, yRowStride, uvRowStride, uvPixelStride, out);
+  }
+
+  /** Drop-in replacement for {@link ImageUtils#convertYUV420SPToARGB8888} (NV21 input). */
+  public void convertYUV420SPToARGB8888(byte[] input, int width, int height, int[] output) {
+    if (compatibilityMode) {
+      ImageUtils.convertYUV420SPToARGB8888(input, width, height, output);
+      return;
+    }
+    final int frameSize = width * height;
+    // NV21 interleaves V then U after the luminance plane.
+    convert(input, input, frameSize + 1, input, frameSize, width, height, width, width, 2, output);
+  }
+
+  /**
+   * Converts a planar frame with both this converter and ImageUtils and reports whether every
+   * pixel is identical.
+   */
+  public boolean matchesReference(
+      byte[] yData,
+      byte[] uData,
+      byte[] vData,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride) {
+    final int[] expected = new int[width * height];
+    final int[] actual = new int[width * height];
+    ImageUtils.convertYUV420ToARGB8888(
+        yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride, expected);
+    convert(yData, uData, 0, vData, 0, width, height, yRowStride, uvRowStride, uvPixelStride, actual);
+    return countMismatches(expected, actual) == 0;
+  }
+
+  /**
+   * Converts an NV21 frame with both this converter and ImageUtils and reports whether every pixel
+   * is identical.
+   */
+  public boolean matchesReference(byte[] input, int width, int height) {
+    final int frameSize = width * height;
+    final int[] expected = new int[frameSize];
+    final int[] actual = new int[frameSize];
+    ImageUtils.convertYUV420SPToARGB8888(input, width, height, expected);
+    convert(input, input, frameSize + 1, input, frameSize, width, height, width, width, 2, actual);
+    return countMismatches(expected, actual) == 0;
+  }
+
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  private void convert(
+      final byte[] yData,
+      final byte[] uData,
+      final int uBase,
+      final byte[] vData,
+      final int vBase,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    if (executor == null) {
+      convertRows(yData, uData, uBase, vData, vBase, width, 0, height,
+          yRowStride, uvRowStride, uvPixelStride, out);
+      return;
+    }
+
+    // Stripes start on even rows so that no 2x2 block is split between threads.
+    final int blockRows = (height + 1) / 2;
+    for (int s = 1; s < numStripes; ++s) {
+      final int from = Math.min(height, 2 * (blockRows * s / numStripes));
+      final int to = Math.min(height, 2 * (blockRows * (s + 1) / numStripes));
+      pending.add(
+          executor.submit(
+              new Runnable() {
+                @Override
+                public void run() {
+                  convertRows(yData, uData, uBase, vData, vBase, width, from, to,
+                      yRowStride, uvRowStride, uvPixelStride, out);
+                }
+              }));
+    }
+    convertRows(yData, uData, uBase, vData, vBase, width, 0,
+        Math.min(height, 2 * (blockRows / numStripes)), yRowStride, uvRowStride, uvPixelStride, out);
+
+    try {
+      for (Future<?> future : pending) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pending.clear();
+    }
+  }
+
+  private static int countMismatches(int[] expected, int[] actual) {
+    int mismatches = 0;
+    for (int i = 0; i < expected.length; ++i) {
+      if (expected[i] != actual[i]) {
+        ++mismatches;
+      }
+    }
+    if (mismatches > 0) {
+      LOGGER.w("YUV converter differs from reference on %d of %d pixels", mismatches, expected.length);
+    }
+    return mismatches;
+  }
+
+  /** Converts rows [fromRow, toRow); fromRow must be even. */
+  private static void convertRows(
+      byte[] yData,
+      byte[] uData,
+      int uBase,
+      byte[] vData,
+      int vBase,
+      int width,
+      int fromRow,
+      int toRow,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int[] out) {
+    final int[] clamp = CLAMP_TABLE;
+    for (int j = fromRow; j < toRow; j += 2) {
+      final boolean hasSecondRow = j + 1 < toRow;
+      final int pY0 = yRowStride * j;
+      final int pY1 = pY0 + yRowStride;
+      final int pUV = uvRowStride * (j >> 1);
+      final int o0 = width * j;
+      final int o1 = o0 + width;
+
+      for (int i = 0; i < width; i += 2) {
+        final int uvOffset = pUV + (i >> 1) * uvPixelStride;
+        final int u = 0xff & uData[uBase + uvOffset];
+        final int v = 0xff & vData[vBase + uvOffset];
+        final int rc = RV_TABLE[v];
+        final int gc = GV_TABLE[v] + GU_TABLE[u];
+        final int bc = BU_TABLE[u];
+        final boolean hasSecondColumn = i + 1 < width;
+
+        int y = Y_TABLE[0xff & yData[pY0 + i]];
+        out[o0 + i] = pack(clamp, y + rc, y + gc, y + bc);
+        if (hasSecondColumn) {
+          y = Y_TABLE[0xff & yData[pY0 + i + 1]];
+          out[o0 + i + 1] = pack(clamp, y + rc, y + gc, y + bc);
+        }
+        if (hasSecondRow) {
+          y = Y_TABLE[0xff & yData[pY1 + i]];
+          out[o1 + i] = pack(clamp, y + rc, y + gc, y + bc);
+          if (hasSecondColumn) {
+            y = Y_TABLE[0xff & yData[pY1 + i + 1]];
+            out[o1 + i + 1] = pack(clamp, y + rc, y + gc, y + bc);
+          }
+        }
+      }
+    }
+  }
+
+  private static int pack(int[] clamp, int r, int g, int b) {
+    return 0xff000000
+        | (clamp[(r >> 10) + CLAMP_OFFSET] << 16)
+        | (clamp[(g >> 10) + CLAMP_OFFSET] << 8)
+        | clamp[(b >> 10) + CLAMP_OFFSET];
+  }
+
+  private static class ConverterThreadFactory implements ThreadFactory {
+    private int count = 0;
+
+    @Override
+    public synchronized Thread newThread(Runnable r) {
+      Thread thread = new Thread(r, "yuv-convert-" + count++);
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
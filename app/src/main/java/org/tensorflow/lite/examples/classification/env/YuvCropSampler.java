@@ -0,0 +1,117 @@
+package org.tensorflow.lite.examples.classification.env;
+
+import android.graphics.Matrix;
+
+/**
+ * Samples a model-sized crop straight out of YUV420 camera planes.
+ * <p>
+ * The crop/rotate/scale mapping (the same frameToCropTransform that used to be drawn through a
+ * Canvas) is inverted once, and the source pixel of every destination pixel is precomputed with
+ * nearest-neighbour sampling at pixel centers, like an unfiltered drawBitmap. Each frame then
+ * converts only the pixels that land inside the crop. No full-frame ARGB buffer or Bitmap is
+ * involved.
+ */
+public class YuvCropSampler {
+  private final int dstWidth;
+  private final int dstHeight;
+  /** Source column and row of every destination pixel, or -1 when it falls outside the frame. */
+  private final int[] srcX;
+  private final int[] srcY;
+
+  // Plane offsets of every destination pixel for the strides they were computed with.
+  private final int[] yOffsets;
+  private final int[] uvOffsets;
+  private int yRowStride = -1;
+  private int uvRowStride = -1;
+  private int uvPixelStride = -1;
+
+  /**
+   * @param srcWidth       camera frame width.
+   * @param srcHeight      camera frame height.
+   * @param dstWidth       crop width, i.e. model input width.
+   * @param dstHeight      crop height, i.e. model input height.
+   * @param frameToCrop    transformation from frame to crop coordinates.
+   */
+  public YuvCropSampler(int srcWidth, int srcHeight, int dstWidth, int dstHeight, Matrix frameToCrop) {
+    this.dstWidth = dstWidth;
+    this.dstHeight = dstHeight;
+    final int numPixels = dstWidth * dstHeight;
+    srcX = new int[numPixels];
+    srcY = new int[numPixels];
+    yOffsets = new int[numPixels];
+    uvOffsets = new int[numPixels];
+
+    final Matrix cropToFrame = new Matrix();
+    frameToCrop.invert(cropToFrame);
+    final float[] m = new float[9];
+    cropToFrame.getValues(m);
+
+    for (int y = 0, i = 0; y < dstHeight; ++y) {
+      for (int x = 0; x < dstWidth; ++x, ++i) {
+        final float cx = x + 0.5f;
+        final float cy = y + 0.5f;
+        final float w = m[Matrix.MPERSP_0] * cx + m[Matrix.MPERSP_1] * cy + m[Matrix.MPERSP_2];
+        final float fx = (m[Matrix.MSCALE_X] * cx + m[Matrix.MSKEW_X] * cy + m[Matrix.MTRANS_X]) / w;
+        final float fy = (m[Matrix.MSKEW_Y] * cx + m[Matrix.MSCALE_Y] * cy + m[Matrix.MTRANS_Y]) / w;
+        final int sx = (int) Math.floor(fx);
+        final int sy = (int) Math.floor(fy);
+        if (sx < 0 || sy < 0 || sx >= srcWidth || sy >= srcHeight) {
+          srcX[i] = -1;
+          srcY[i] = -1;
+        } else {
+          srcX[i] = sx;
+          srcY[i] = sy;
+        }
+      }
+    }
+  }
+
+  public int getWidth() {
+    return dstWidth;
+  }
+
+  public int getHeight() {
+    return dstHeight;
+  }
+
+  /** Writes the crop as ARGB_8888 pixels, row-major; pixels outside the frame are black. */
+  public void sample(byte[] yData, byte[] uData, byte[] vData,
+      int yRowStride, int uvRowStride, int uvPixelStride, int[] out) {
+    prepare(yRowStride, uvRowStride, uvPixelStride);
+    for (int i = 0; i < yOffsets.length; ++i) {
+      out[i] = argb(yData, uData, vData, i);
+    }
+  }
+
+  private int argb(byte[] yData, byte[] uData, byte[] vData, int i) {
+    final int yOffset = yOffsets[i];
+    if (yOffset < 0) {
+      return 0xff000000;
+    }
+    final int uvOffset = uvOffsets[i];
+    return ImageUtils.YUV2RGB(0xff & yData[yOffset], 0xff & uData[uvOffset], 0xff & vData[uvOffset]);
+  }
+
+  /** Recomputes the per-pixel plane offsets when the plane strides change. */
+  private void prepare(int yRowStride, int uvRowStride, int uvPixelStride) {
+    if (yRowStride == this.yRowStride
+        && uvRowStride == this.uvRowStride
+        && uvPixelStride == this.uvPixelStride) {
+      return;
+    }
+    for (int i = 0; i < yOffsets.length; ++i) {
+      final int sx = srcX[i];
+      final int sy = srcY[i];
+      if (sx < 0) {
+        yOffsets[i] = -1;
+        uvOffsets[i] = -1;
+      } else {
+        yOffsets[i] = sy * yRowStride + sx;
+        uvOffsets[i] = (sy >> 1) * uvRowStride + (sx >> 1) * uvPixelStride;
+      }
+    }
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+  }
+}
@@ -44,6 +44,8 @@ public interface Classifier_Yolo {
     public class Recognition {
         private Float distance;
         private Float dx, dy;
+        /** Velocity of the matching track, in location units per millisecond. */
+        private float velocityX, velocityY;
         /**
          * A unique identifier for what has been recognized. Specific to the class, not the instance of
          * the object.
@@ -87,12 +89,21 @@ public interface Classifier_Yolo {
 
         public void setDxDy(float dx, float dy) { this.dx = dx; this.dy = dy;}
 
+        public void setVelocity(float velocityX, float velocityY) {
+            this.velocityX = velocityX;
+            this.velocityY = velocityY;
+        }
+
         public float getDistance(){ return distance; }
 
         public float getDx(){ return dx; }
 
         public float getDy(){ return dy; }
 
+        public float getVelocityX() { return velocityX; }
+
+        public float getVelocityY() { return velocityY; }
+
         public String getId() {
             return id;
         }
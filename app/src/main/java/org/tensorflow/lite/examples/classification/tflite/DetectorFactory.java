@@ -46,7 +46,7 @@ public class DetectorFactory {
             inputSize = 480;
         }
         return YoloV5Classifier.create(assetManager, modelFilename, labelFilename, isQuantized,
-                inputSize);
+                inputSize, output_width, masks, anchors);
     }
 
 }
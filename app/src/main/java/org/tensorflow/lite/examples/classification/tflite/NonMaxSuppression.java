@@ -0,0 +1,106 @@
+package org.tensorflow.lite.examples.classification.tflite;
+
+import java.util.Arrays;
+
+/**
+ * Class-aware non maximum suppression over primitive box arrays.
+ * <p>
+ * Candidates are sorted by score exactly once, box areas are computed once, and a single greedy
+ * pass keeps the best remaining box and suppresses every lower-scored box of the same class that
+ * overlaps it by at least the IoU threshold. All working arrays are reused between calls.
+ */
+public class NonMaxSuppression {
+    private final float iouThreshold;
+    private final int maxDetections;
+
+    private long[] order = new long[0];
+    private float[] areas = new float[0];
+    private boolean[] suppressed = new boolean[0];
+    private final int[] keep;
+
+    /**
+     * @param iouThreshold  a box is suppressed when its IoU with a kept box of the same class is
+     *                      at least this value.
+     * @param maxDetections at most this many boxes are kept, highest scores first.
+     */
+    public NonMaxSuppression(float iouThreshold, int maxDetections) {
+        this.iouThreshold = iouThreshold;
+        this.maxDetections = maxDetections;
+        this.keep = new int[maxDetections];
+    }
+
+    /** Runs suppression over all candidates; see {@link #run(float[], float[], int[], int)}. */
+    public int run(YoloCandidates candidates) {
+        return run(candidates.getBoxes(), candidates.getScores(), candidates.getClasses(),
+                candidates.size());
+    }
+
+    /**
+     * Runs suppression over the first {@code n} candidates.
+     *
+     * @param boxes   interleaved (left, top, right, bottom) boxes.
+     * @param scores  non-negative candidate scores.
+     * @param classes candidate class indices; boxes of different classes never suppress each other.
+     * @return the number of kept boxes; their indices, by descending score, are in {@link #getKeep()}.
+     */
+    public int run(float[] boxes, float[] scores, int[] classes, int n) {
+        ensureCapacity(n);
+
+        // Non-negative floats order the same way as their bit patterns, so the score and the
+        // index can be packed into one long and sorted without boxing.
+        for (int i = 0; i < n; ++i) {
+            order[i] = ((long) Float.floatToIntBits(scores[i]) << 32) | i;
+            final int b = i * 4;
+            areas[i] = (boxes[b + 2] - boxes[b]) * (boxes[b + 3] - boxes[b + 1]);
+            suppressed[i] = false;
+        }
+        Arrays.sort(order, 0, n);
+
+        int kept = 0;
+        for (int o = n - 1; o >= 0 && kept < maxDetections; --o) {
+            final int i = (int) order[o];
+            if (suppressed[i]) {
+                continue;
+            }
+            keep[kept++] = i;
+
+            final int bi = i * 4;
+            final float left = boxes[bi];
+            final float top = boxes[bi + 1];
+            final float right = boxes[bi + 2];
+            final float bottom = boxes[bi + 3];
+            for (int p = o - 1; p >= 0; --p) {
+                final int j = (int) order[p];
+                if (suppressed[j] || classes[j] != classes[i]) {
+                    continue;
+                }
+                final int bj = j * 4;
+                final float w = Math.min(right, boxes[bj + 2]) - Math.max(left, boxes[bj]);
+                final float h = Math.min(bottom, boxes[bj + 3]) - Math.max(top, boxes[bj + 1]);
+                if (w < 0 || h < 0) {
+                    continue;
+                }
+                final float intersection = w * h;
+                final float iou = intersection / (areas[i] + areas[j] - intersection);
+                if (iou >= iouThreshold) {
+                    suppressed[j] = true;
+                }
+            }
+        }
+        return kept;
+    }
+
+    /** Indices of the boxes kept by the last {@link #run} call, by descending score. */
+    public int[] getKeep() {
+        return keep;
+    }
+
+    private void ensureCapacity(int n) {
+        if (order.length < n) {
+            int capacity = Math.max(n, order.length * 2);
+            order = new long[capacity];
+            areas = new float[capacity];
+            suppressed = new boolean[capacity];
+        }
+    }
+}
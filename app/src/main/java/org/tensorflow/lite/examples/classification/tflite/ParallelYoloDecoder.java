@@ -0,0 +1,173 @@
+package org.tensorflow.lite.examples.classification.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Splits the rows of a {@link YoloOutputDecoder} across a small worker pool.
+ * <p>
+ * Each partition is a contiguous row range decoded into its own {@link YoloCandidates}; the
+ * calling thread decodes the first partition itself and the buffers are merged in row order, so
+ * the result is identical to a sequential decode. Outputs with fewer than {@code minParallelRows}
+ * rows are decoded sequentially, where the hand-off would cost more than it saves.
+ */
+public class ParallelYoloDecoder {
+    private final YoloOutputDecoder decoder;
+    private final int numPartitions;
+    private final int minParallelRows;
+    private final ExecutorService executor;
+    private final YoloCandidates[] partials;
+    private final List<Future<?>> pending = new ArrayList<>();
+
+    /**
+     * @param numThreads      total number of threads decoding, including the caller.
+     * @param minParallelRows below this many rows the decode stays on the calling thread.
+     */
+    public ParallelYoloDecoder(YoloOutputDecoder decoder, int numThreads, int minParallelRows) {
+        this.decoder = decoder;
+        this.numPartitions = Math.max(1, numThreads);
+        this.minParallelRows = minParallelRows;
+        this.partials = new YoloCandidates[numPartitions];
+        for (int p = 0; p < numPartitions; ++p) {
+            partials[p] = new YoloCandidates(64);
+        }
+        this.executor = numPartitions > 1
+                ? Executors.newFixedThreadPool(numPartitions - 1, new DecoderThreadFactory())
+                : null;
+    }
+
+    /** Parallel form of {@link YoloOutputDecoder#decode(FloatBuffer, int, int, float, float, float, YoloCandidates)}. */
+    public void decode(final FloatBuffer output, final float threshold,
+                       final float maxX, final float maxY, YoloCandidates out) {
+        final int numBoxes = decoder.getNumBoxes();
+        if (executor == null || numBoxes < minParallelRows) {
+            decoder.decode(output, 0, numBoxes, threshold, maxX, maxY, out);
+            return;
+        }
+        for (int p = 1; p < numPartitions; ++p) {
+            final int from = rowStart(p, numBoxes);
+            final int to = rowStart(p + 1, numBoxes);
+            final YoloCandidates partial = partials[p];
+            pending.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    partial.clear();
+                    decoder.decode(output, from, to, threshold, maxX, maxY, partial);
+                    return null;
+                }
+            }));
+        }
+        boolean decoded = false;
+        try {
+            decoder.decode(output, 0, rowStart(1, numBoxes), threshold, maxX, maxY, out);
+            decoded = true;
+        } finally {
+            if (!decoded) {
+                drainPending();
+            }
+        }
+        merge(out);
+    }
+
+    /** Parallel form of {@link YoloOutputDecoder#decode(ByteBuffer, int, int, float, float, YoloCandidates)}. */
+    public void decode(final ByteBuffer output, final float maxX, final float maxY, YoloCandidates out) {
+        final int numBoxes = decoder.getNumBoxes();
+        if (executor == null || numBoxes < minParallelRows) {
+            decoder.decode(output, 0, numBoxes, maxX, maxY, out);
+            return;
+        }
+        for (int p = 1; p < numPartitions; ++p) {
+            final int from = rowStart(p, numBoxes);
+            final int to = rowStart(p + 1, numBoxes);
+            final YoloCandidates partial = partials[p];
+            pending.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    partial.clear();
+                    decoder.decode(output, from, to, maxX, maxY, partial);
+                    return null;
+                }
+            }));
+        }
+        boolean decoded = false;
+        try {
+            decoder.decode(output, 0, rowStart(1, numBoxes), maxX, maxY, out);
+            decoded = true;
+        } finally {
+            if (!decoded) {
+                drainPending();
+            }
+        }
+        merge(out);
+    }
+
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private int rowStart(int partition, int numBoxes) {
+        return (int) ((long) numBoxes * partition / numPartitions);
+    }
+
+    /** Waits for the workers and appends their candidates after the caller's, in row order. */
+    private void merge(YoloCandidates out) {
+        try {
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            drainPending();
+        }
+        for (int p = 1; p < numPartitions; ++p) {
+            out.addAll(partials[p]);
+        }
+    }
+
+    /**
+     * Waits for every submitted partition without using its result and clears {@link #pending},
+     * so that no worker is still writing into {@link #partials} when the next decode reuses them.
+     */
+    private void drainPending() {
+        boolean interrupted = false;
+        for (Future<?> future : pending) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                future.cancel(true);
+            } catch (ExecutionException e) {
+                // Already reported by merge(), or superseded by the caller's own failure.
+            }
+        }
+        pending.clear();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class DecoderThreadFactory implements ThreadFactory {
+        private int count = 0;
+
+        @Override
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "yolo-decode-" + count++);
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
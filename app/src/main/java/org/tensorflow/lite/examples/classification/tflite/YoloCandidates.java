@@ -0,0 +1,92 @@
+package org.tensorflow.lite.examples.classification.tflite;
+
+import java.util.Arrays;
+
+/**
+ * Pre-allocated, primitive storage for the boxes that survive YOLO output decoding.
+ * <p>
+ * Boxes are stored as interleaved (left, top, right, bottom) in input-image pixels. The buffer is
+ * cleared and refilled every frame, so nothing is allocated in the steady state; it only grows when
+ * a frame produces more candidates than it has ever seen before.
+ */
+public class YoloCandidates {
+    private float[] boxes;
+    private float[] scores;
+    private int[] classes;
+    private int size = 0;
+
+    public YoloCandidates(int initialCapacity) {
+        int capacity = Math.max(1, initialCapacity);
+        boxes = new float[capacity * 4];
+        scores = new float[capacity];
+        classes = new int[capacity];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void add(float left, float top, float right, float bottom, float score, int detectedClass) {
+        if (size == scores.length) {
+            grow(size + 1);
+        }
+        int b = size * 4;
+        boxes[b] = left;
+        boxes[b + 1] = top;
+        boxes[b + 2] = right;
+        boxes[b + 3] = bottom;
+        scores[size] = score;
+        classes[size] = detectedClass;
+        size++;
+    }
+
+    /** Appends every candidate of {@code other}, keeping their order. */
+    public void addAll(YoloCandidates other) {
+        final int n = other.size;
+        if (size + n > scores.length) {
+            grow(size + n);
+        }
+        System.arraycopy(other.boxes, 0, boxes, size * 4, n * 4);
+        System.arraycopy(other.scores, 0, scores, size, n);
+        System.arraycopy(other.classes, 0, classes, size, n);
+        size += n;
+    }
+
+    /** Interleaved (left, top, right, bottom) boxes; only the first {@code size() * 4} are valid. */
+    public float[] getBoxes() {
+        return boxes;
+    }
+
+    /** Per-candidate confidence (objectness * class score); only the first {@code size()} are valid. */
+    public float[] getScores() {
+        return scores;
+    }
+
+    /** Per-candidate class index; only the first {@code size()} are valid. */
+    public int[] getClasses() {
+        return classes;
+    }
+
+    public float getLeft(int i) { return boxes[i * 4]; }
+
+    public float getTop(int i) { return boxes[i * 4 + 1]; }
+
+    public float getRight(int i) { return boxes[i * 4 + 2]; }
+
+    public float getBottom(int i) { return boxes[i * 4 + 3]; }
+
+    public float getScore(int i) { return scores[i]; }
+
+    public int getDetectedClass(int i) { return classes[i]; }
+
+    private void grow(int minCapacity) {
+        int capacity = Math.max(minCapacity, scores.length * 2);
+        boxes = Arrays.copyOf(boxes, capacity * 4);
+        scores = Arrays.copyOf(scores, capacity);
+        classes = Arrays.copyOf(classes, capacity);
+    }
+}
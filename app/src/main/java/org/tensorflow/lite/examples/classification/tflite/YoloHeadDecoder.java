@@ -0,0 +1,170 @@
+package org.tensorflow.lite.examples.classification.tflite;
+
+import static org.tensorflow.lite.examples.classification.env.Utils.expit;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Decodes the raw grid heads of a YOLOv5 model exported without the Detect layer's
+ * post-processing (no sigmoid, no anchor math, no concat).
+ * <p>
+ * Each head holds raw logits for {@code numAnchors} anchors per grid cell, laid out either as
+ * [1, numAnchors, gridH, gridW, 5 + numClass] or as [1, gridH, gridW, numAnchors * (5 + numClass)].
+ * A cell is only decoded when its objectness logit beats the inverse sigmoid of the threshold, so
+ * sigmoid and anchor math run on the few cells that can still pass; for the rest a single float
+ * compare is all that is spent.
+ */
+public class YoloHeadDecoder {
+    private final int numClass;
+    private final int rowSize;
+    private final float threshold;
+    private final float objLogitThreshold;
+    private final Head[] heads;
+
+    /** Geometry of one output head. */
+    private static class Head {
+        int gridW;
+        int gridH;
+        float stride;
+        float[] anchorW;
+        float[] anchorH;
+        int anchorStep;
+        int yStep;
+        int xStep;
+    }
+
+    /**
+     * @param inputSize   model input size in pixels.
+     * @param numClass    number of classes per anchor.
+     * @param outputWidth grid width of every head, e.g. {80, 40, 20} for a 640 input.
+     * @param masks       anchor indices used by every head.
+     * @param anchors     flattened (w, h) anchor pairs in input pixels.
+     * @param threshold   confidence threshold; objectness * class score must exceed it.
+     */
+    public YoloHeadDecoder(int inputSize, int numClass, int[] outputWidth, int[][] masks,
+                           int[] anchors, float threshold) {
+        this.numClass = numClass;
+        this.rowSize = numClass + 5;
+        this.threshold = threshold;
+        this.objLogitThreshold = (float) Math.log(threshold / (1.0 - threshold));
+        this.heads = new Head[outputWidth.length];
+        for (int h = 0; h < outputWidth.length; ++h) {
+            Head head = new Head();
+            head.gridW = outputWidth[h];
+            head.gridH = outputWidth[h];
+            head.stride = inputSize / (float) outputWidth[h];
+            head.anchorW = new float[masks[h].length];
+            head.anchorH = new float[masks[h].length];
+            for (int a = 0; a < masks[h].length; ++a) {
+                head.anchorW[a] = anchors[masks[h][a] * 2];
+                head.anchorH[a] = anchors[masks[h][a] * 2 + 1];
+            }
+            heads[h] = head;
+        }
+    }
+
+    public int getNumHeads() {
+        return heads.length;
+    }
+
+    /**
+     * Returns the head whose grid matches an output tensor shape, or -1 if none does. Must be
+     * called once per head so the element layout of each output is known.
+     *
+     * @throws IllegalArgumentException if the grid matches a head but the anchor and class
+     *                                  dimensions do not.
+     */
+    public int bindOutput(int[] shape) {
+        final boolean anchorMajor = shape.length == 5;
+        final int gridH = anchorMajor ? shape[2] : shape[1];
+        final int gridW = anchorMajor ? shape[3] : shape[2];
+        for (int h = 0; h < heads.length; ++h) {
+            Head head = heads[h];
+            if (head.gridW != gridW || head.gridH != gridH) {
+                continue;
+            }
+            final int numAnchors = head.anchorW.length;
+            final boolean matches = anchorMajor
+                    ? shape[1] == numAnchors && shape[4] == rowSize
+                    : shape[3] == numAnchors * rowSize;
+            if (!matches) {
+                throw new IllegalArgumentException("Output shape " + Arrays.toString(shape)
+                        + " does not hold " + numAnchors + " anchors of " + rowSize + " values");
+            }
+            if (anchorMajor) {
+                head.xStep = rowSize;
+                head.yStep = gridW * rowSize;
+                head.anchorStep = gridH * gridW * rowSize;
+            } else {
+                head.anchorStep = rowSize;
+                head.xStep = numAnchors * rowSize;
+                head.yStep = gridW * numAnchors * rowSize;
+            }
+            return h;
+        }
+        return -1;
+    }
+
+    /** Number of elements a head's output tensor holds. */
+    public int getHeadSize(int h) {
+        return heads[h].gridW * heads[h].gridH * heads[h].anchorW.length * rowSize;
+    }
+
+    /**
+     * Decodes every head and appends boxes whose confidence exceeds the threshold to {@code out}.
+     *
+     * @param outputs float view over each head's output, indexed by head.
+     * @param maxX    boxes are clipped to [0, maxX] horizontally.
+     * @param maxY    boxes are clipped to [0, maxY] vertically.
+     */
+    public void decode(FloatBuffer[] outputs, float maxX, float maxY, YoloCandidates out) {
+        for (int h = 0; h < heads.length; ++h) {
+            decodeHead(heads[h], outputs[h], maxX, maxY, out);
+        }
+    }
+
+    private void decodeHead(Head head, FloatBuffer output, float maxX, float maxY, YoloCandidates out) {
+        final float objLogitThreshold = this.objLogitThreshold;
+        final int numAnchors = head.anchorW.length;
+        for (int y = 0; y < head.gridH; ++y) {
+            for (int x = 0; x < head.gridW; ++x) {
+                final int cell = y * head.yStep + x * head.xStep;
+                for (int a = 0; a < numAnchors; ++a) {
+                    final int base = cell + a * head.anchorStep;
+                    final float objLogit = output.get(base + 4);
+                    if (objLogit <= objLogitThreshold) {
+                        continue;
+                    }
+
+                    // Sigmoid is monotonic, so the class argmax can be taken on logits.
+                    int detectedClass = -1;
+                    float maxLogit = Float.NEGATIVE_INFINITY;
+                    for (int c = 0; c < numClass; ++c) {
+                        final float logit = output.get(base + 5 + c);
+                        if (logit > maxLogit) {
+                            detectedClass = c;
+                            maxLogit = logit;
+                        }
+                    }
+                    final float confidenceInClass = expit(objLogit) * expit(maxLogit);
+                    if (confidenceInClass <= threshold) {
+                        continue;
+                    }
+
+                    final float xPos = (expit(output.get(base)) * 2 - 0.5f + x) * head.stride;
+                    final float yPos = (expit(output.get(base + 1)) * 2 - 0.5f + y) * head.stride;
+                    final float sw = expit(output.get(base + 2)) * 2;
+                    final float sh = expit(output.get(base + 3)) * 2;
+                    final float halfW = sw * sw * head.anchorW[a] / 2;
+                    final float halfH = sh * sh * head.anchorH[a] / 2;
+                    out.add(Math.max(0, xPos - halfW),
+                            Math.max(0, yPos - halfH),
+                            Math.min(maxX, xPos + halfW),
+                            Math.min(maxY, yPos + halfH),
+                            confidenceInClass, detectedClass);
+                }
+            }
+        }
+    }
+}
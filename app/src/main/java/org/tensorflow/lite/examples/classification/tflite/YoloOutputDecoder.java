@@ -0,0 +1,148 @@
+package org.tensorflow.lite.examples.classification.tflite;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Decodes the concatenated YOLOv5 output ([1, numBoxes, 5 + numClass]) in place.
+ * <p>
+ * Rows are read straight out of the interpreter's output buffer with absolute gets, so no
+ * intermediate float[][][] or per-row class array is built. Each row is rejected on objectness
+ * before its class scores are read: the class scores are sigmoid outputs in [0, 1], so
+ * objectness * maxClass can never exceed the objectness itself.
+ */
+public class YoloOutputDecoder {
+    private final int numBoxes;
+    private final int numClass;
+    private final int rowSize;
+    private final float inputSize;
+
+    // Quantized output parameters, see setQuantization().
+    private float scale = 1.0f;
+    private int zeroPoint = 0;
+    private float quantizedThreshold = 0.0f;
+    private int rawThreshold = 255;
+
+    public YoloOutputDecoder(int numBoxes, int numClass, int inputSize) {
+        this.numBoxes = numBoxes;
+        this.numClass = numClass;
+        this.rowSize = numClass + 5;
+        this.inputSize = inputSize;
+    }
+
+    public int getNumBoxes() {
+        return numBoxes;
+    }
+
+    /**
+     * Decodes rows [fromRow, toRow) of a float output and appends every box whose
+     * objectness * maxClass exceeds {@code threshold} to {@code out}.
+     *
+     * @param output  float view over the output tensor, indexed from 0.
+     * @param maxX    boxes are clipped to [0, maxX] horizontally.
+     * @param maxY    boxes are clipped to [0, maxY] vertically.
+     */
+    public void decode(FloatBuffer output, int fromRow, int toRow, float threshold,
+                       float maxX, float maxY, YoloCandidates out) {
+        for (int i = fromRow; i < toRow; ++i) {
+            final int base = i * rowSize;
+            final float confidence = output.get(base + 4);
+            if (confidence <= threshold) {
+                continue;
+            }
+
+            int detectedClass = -1;
+            float maxClass = 0;
+            for (int c = 0; c < numClass; ++c) {
+                final float score = output.get(base + 5 + c);
+                if (score > maxClass) {
+                    detectedClass = c;
+                    maxClass = score;
+                }
+            }
+
+            final float confidenceInClass = maxClass * confidence;
+            if (confidenceInClass > threshold) {
+                emit(output.get(base), output.get(base + 1), output.get(base + 2), output.get(base + 3),
+                        confidenceInClass, detectedClass, maxX, maxY, out);
+            }
+        }
+    }
+
+    /**
+     * Prepares the uint8 fast path. The confidence threshold is moved into the raw byte domain
+     * once here, so {@link #decode(ByteBuffer, int, int, float, float, YoloCandidates)} can
+     * reject rows without dequantizing anything.
+     *
+     * @param scale     output tensor quantization scale; must be positive.
+     * @param zeroPoint output tensor quantization zero point.
+     * @param threshold confidence threshold in the dequantized domain.
+     */
+    public void setQuantization(float scale, int zeroPoint, float threshold) {
+        this.scale = scale;
+        this.zeroPoint = zeroPoint;
+        this.quantizedThreshold = threshold;
+        // scale * (q - zeroPoint) > threshold  <=>  q > threshold / scale + zeroPoint, and for an
+        // integer q that is q > floor(threshold / scale + zeroPoint).
+        final double raw = Math.floor(threshold / (double) scale + zeroPoint);
+        this.rawThreshold = (int) Math.max(-1, Math.min(255, raw));
+    }
+
+    /**
+     * Decodes rows [fromRow, toRow) of a uint8 output, using the parameters given to
+     * {@link #setQuantization(float, int, float)}.
+     * <p>
+     * Objectness and the class argmax are evaluated on raw bytes (dequantization is monotonic
+     * because the scale is positive). Only the objectness, the winning class score and the box of
+     * a surviving row are dequantized.
+     */
+    public void decode(ByteBuffer output, int fromRow, int toRow,
+                       float maxX, float maxY, YoloCandidates out) {
+        final int rawThreshold = this.rawThreshold;
+        for (int i = fromRow; i < toRow; ++i) {
+            final int base = i * rowSize;
+            final int rawConfidence = output.get(base + 4) & 0xFF;
+            if (rawConfidence <= rawThreshold) {
+                continue;
+            }
+
+            // Class scores must be positive, i.e. strictly above the zero point.
+            int detectedClass = -1;
+            int rawMaxClass = zeroPoint;
+            for (int c = 0; c < numClass; ++c) {
+                final int rawScore = output.get(base + 5 + c) & 0xFF;
+                if (rawScore > rawMaxClass) {
+                    detectedClass = c;
+                    rawMaxClass = rawScore;
+                }
+            }
+            if (detectedClass < 0) {
+                continue;
+            }
+
+            final float confidenceInClass =
+                    scale * (rawConfidence - zeroPoint) * scale * (rawMaxClass - zeroPoint);
+            if (confidenceInClass > quantizedThreshold) {
+                emit(scale * ((output.get(base) & 0xFF) - zeroPoint),
+                        scale * ((output.get(base + 1) & 0xFF) - zeroPoint),
+                        scale * ((output.get(base + 2) & 0xFF) - zeroPoint),
+                        scale * ((output.get(base + 3) & 0xFF) - zeroPoint),
+                        confidenceInClass, detectedClass, maxX, maxY, out);
+            }
+        }
+    }
+
+    /** Denormalizes a (cx, cy, w, h) box to input pixels, clips it and appends it. */
+    private void emit(float x, float y, float w, float h, float score, int detectedClass,
+                      float maxX, float maxY, YoloCandidates out) {
+        final float xPos = x * inputSize;
+        final float yPos = y * inputSize;
+        final float halfW = w * inputSize / 2;
+        final float halfH = h * inputSize / 2;
+        out.add(Math.max(0, xPos - halfW),
+                Math.max(0, yPos - halfH),
+                Math.min(maxX, xPos + halfW),
+                Math.min(maxY, yPos + halfH),
+                score, detectedClass);
+    }
+}
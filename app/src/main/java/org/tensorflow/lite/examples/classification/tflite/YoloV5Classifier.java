@@ -36,13 +36,12 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Vector;
 
 
@@ -64,6 +63,10 @@ public class YoloV5Classifier implements Classifier_Yolo {
      * @param modelFilename The filepath of the model GraphDef protocol buffer.
      * @param labelFilename The filepath of label file for classes.
      * @param isQuantized   Boolean representing model is quantized or not
+     * @param output_width  Grid width of every raw output head, used when the model is exported
+     *                      without the Detect layer's concat.
+     * @param masks         Anchor indices used by every raw output head.
+     * @param anchors       Flattened (w, h) anchor pairs in input pixels.
      */
 
     public static YoloV5Classifier create(
@@ -71,10 +74,10 @@ public class YoloV5Classifier implements Classifier_Yolo {
             final String modelFilename,
             final String labelFilename,
             final boolean isQuantized,
-            final int inputSize
-            /*final int[] output_width,
+            final int inputSize,
+            final int[] output_width,
             final int[][] masks,
-            final int[] anchors*/)
+            final int[] anchors)
             throws IOException {
         final YoloV5Classifier d = new YoloV5Classifier();
 
@@ -135,9 +138,6 @@ public class YoloV5Classifier implements Classifier_Yolo {
         d.intValues = new int[d.INPUT_SIZE * d.INPUT_SIZE];
 
         d.output_box = (int) ((Math.pow((inputSize / 32), 2) + Math.pow((inputSize / 16), 2) + Math.pow((inputSize / 8), 2)) * 3);
-//        d.OUTPUT_WIDTH = output_width;
-//        d.MASKS = masks;
-//        d.ANCHORS = anchors;
         if (d.isModelQuantized){
             Tensor inpten = d.tfLite.getInputTensor(0);
             d.inp_scale = inpten.quantizationParams().getScale();
@@ -146,12 +146,67 @@ public class YoloV5Classifier implements Classifier_Yolo {
             d.oup_scale = oupten.quantizationParams().getScale();
             d.oup_zero_point = oupten.quantizationParams().getZeroPoint();
         }
+        d.buildInputLookupTables();
 
-        int[] shape = d.tfLite.getOutputTensor(0).shape();
-        int numClass = shape[shape.length - 1] - 5;
-        d.numClass = numClass;
-        d.outData = ByteBuffer.allocateDirect(d.output_box * (numClass + 5) * numBytesPerChannel);
-        d.outData.order(ByteOrder.nativeOrder());
+        final int numOutputs = d.tfLite.getOutputTensorCount();
+        if (numOutputs > 1) {
+            // Raw grid heads: the export left out the Detect layer's sigmoid, anchor math and concat.
+            if (d.isModelQuantized) {
+                throw new IllegalArgumentException("Raw YOLO output heads require a float model");
+            }
+            if (numOutputs != output_width.length) {
+                throw new IllegalArgumentException(
+                        "Model has " + numOutputs + " outputs but " + output_width.length + " heads are configured");
+            }
+            int[] shape = d.tfLite.getOutputTensor(0).shape();
+            int numClass;
+            if (shape.length == 5) {
+                numClass = shape[4] - 5;
+            } else {
+                // Channels-last heads pack every anchor of a cell into the last dimension, so the
+                // anchor count has to come from the head this output belongs to.
+                int head = -1;
+                for (int h = 0; h < output_width.length; ++h) {
+                    if (output_width[h] == shape[2]) {
+                        head = h;
+                    }
+                }
+                if (head < 0) {
+                    throw new IllegalArgumentException("Output 0 does not match any YOLO head");
+                }
+                numClass = shape[3] / masks[head].length - 5;
+            }
+            d.numClass = numClass;
+            d.headDecoder = new YoloHeadDecoder(inputSize, numClass, output_width, masks, anchors,
+                    d.getObjThresh());
+            d.headData = new ByteBuffer[numOutputs];
+            d.headFloats = new FloatBuffer[numOutputs];
+            for (int i = 0; i < numOutputs; ++i) {
+                int head = d.headDecoder.bindOutput(d.tfLite.getOutputTensor(i).shape());
+                if (head < 0) {
+                    throw new IllegalArgumentException("Output " + i + " does not match any YOLO head");
+                }
+                d.headData[i] = ByteBuffer.allocateDirect(d.headDecoder.getHeadSize(head) * 4);
+                d.headData[i].order(ByteOrder.nativeOrder());
+                d.headFloats[head] = d.headData[i].asFloatBuffer();
+                d.outputMap.put(i, d.headData[i]);
+            }
+        } else {
+            int[] shape = d.tfLite.getOutputTensor(0).shape();
+            int numClass = shape[shape.length - 1] - 5;
+            d.numClass = numClass;
+            d.outData = ByteBuffer.allocateDirect(d.output_box * (numClass + 5) * numBytesPerChannel);
+            d.outData.order(ByteOrder.nativeOrder());
+            d.outFloats = d.outData.asFloatBuffer();
+            d.decoder = new YoloOutputDecoder(d.output_box, numClass, inputSize);
+            if (d.isModelQuantized) {
+                d.decoder.setQuantization(d.oup_scale, d.oup_zero_point, d.getObjThresh());
+            }
+            d.parallelDecoder = new ParallelYoloDecoder(d.decoder, 1, MIN_PARALLEL_DECODE_ROWS);
+            d.outputMap.put(0, d.outData);
+        }
+        d.candidates = new YoloCandidates(INITIAL_CANDIDATE_CAPACITY);
+        d.inputArray = new Object[]{d.imgData};
         return d;
     }
 
@@ -180,12 +235,31 @@ public class YoloV5Classifier implements Classifier_Yolo {
             nnapiDelegate = null;
         }
         tfliteModel = null;
+        if (parallelDecoder != null) {
+            parallelDecoder.close();
+            parallelDecoder = null;
+        }
     }
 
     public void setNumThreads(int num_threads) {
         if (tfLite != null) tfLite.setNumThreads(num_threads);
     }
 
+    /**
+     * Sets how many threads decode the output rows; 1 keeps the decode on the inference thread.
+     * Outputs with fewer than {@code minParallelRows} rows are always decoded sequentially.
+     */
+    public void setDecodeThreads(int numThreads, int minParallelRows) {
+        if (decoder == null) {
+            // Raw output heads are always decoded on the inference thread.
+            return;
+        }
+        if (parallelDecoder != null) {
+            parallelDecoder.close();
+        }
+        parallelDecoder = new ParallelYoloDecoder(decoder, numThreads, minParallelRows);
+    }
+
     @Override
     public void setUseNNAPI(boolean isChecked) {
 //        if (tfLite != null) tfLite.setUseNNAPI(isChecked);
@@ -240,6 +314,14 @@ public class YoloV5Classifier implements Classifier_Yolo {
 
     private static final int NUM_BOXES_PER_BLOCK = 3;
 
+    private static final int INITIAL_CANDIDATE_CAPACITY = 256;
+
+    /** Outputs smaller than this are not worth splitting across decode threads. */
+    public static final int MIN_PARALLEL_DECODE_ROWS = 4096;
+
+    /** Recognitions are not tracked by id; every detection shares the same one. */
+    private static final String RECOGNITION_ID = "0";
+
     // Number of threads in the java app
     private static final int NUM_THREADS = 1;
     private static boolean isNNAPI = false;
@@ -265,7 +347,24 @@ public class YoloV5Classifier implements Classifier_Yolo {
     private int[] intValues;
 
     private ByteBuffer imgData;
+    /** Per-channel input lookup tables and staging arrays, see buildInputLookupTables(). */
+    private float[] floatLut;
+    private byte[] byteLut;
+    private float[] floatInput;
+    private byte[] byteInput;
+    private FloatBuffer imgFloats;
     private ByteBuffer outData;
+    /** Float view over outData, read in place by the decoder. */
+    private FloatBuffer outFloats;
+    private YoloOutputDecoder decoder;
+    private ParallelYoloDecoder parallelDecoder;
+    /** Set instead of decoder when the model outputs raw grid heads. */
+    private YoloHeadDecoder headDecoder;
+    private ByteBuffer[] headData;
+    private FloatBuffer[] headFloats;
+    private YoloCandidates candidates;
+    private Object[] inputArray;
+    private final Map<Integer, Object> outputMap = new HashMap<>();
 
     private Interpreter tfLite;
     private float inp_scale;
@@ -276,197 +375,130 @@ public class YoloV5Classifier implements Classifier_Yolo {
     private YoloV5Classifier() {
     }
 
-    //non maximum suppression
-    protected ArrayList<Recognition> nms(ArrayList<Recognition> list) {
-        ArrayList<Recognition> nmsList = new ArrayList<Recognition>();
-
-        for (int k = 0; k < labels.size(); k++) {
-            //1.find max confidence per class
-            PriorityQueue<Recognition> pq =
-                    new PriorityQueue<Recognition>(
-                            50,
-                            new Comparator<Recognition>() {
-                                @Override
-                                public int compare(final Recognition lhs, final Recognition rhs) {
-                                    // Intentionally reversed to put high confidence at the head of the queue.
-                                    return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-                                }
-                            });
-
-            for (int i = 0; i < list.size(); ++i) {
-                if (list.get(i).getDetectedClass() == k) {
-                    pq.add(list.get(i));
-                }
-            }
-
-            //2.do non maximum suppression
-            while (pq.size() > 0) {
-                //insert detection with max confidence
-                Recognition[] a = new Recognition[pq.size()];
-                Recognition[] detections = pq.toArray(a);
-                Recognition max = detections[0];
-                nmsList.add(max);
-                pq.clear();
-
-                for (int j = 1; j < detections.length; j++) {
-                    Recognition detection = detections[j];
-                    RectF b = detection.getLocation();
-                    if (box_iou(max.getLocation(), b) < mNmsThresh) {
-                        pq.add(detection);
-                    }
-                }
-            }
-        }
-        return nmsList;
-    }
-
     protected float mNmsThresh = 0.6f;
 
-    protected float box_iou(RectF a, RectF b) {
-        return box_intersection(a, b) / box_union(a, b);
-    }
-
-    protected float box_intersection(RectF a, RectF b) {
-        float w = overlap((a.left + a.right) / 2, a.right - a.left,
-                (b.left + b.right) / 2, b.right - b.left);
-        float h = overlap((a.top + a.bottom) / 2, a.bottom - a.top,
-                (b.top + b.bottom) / 2, b.bottom - b.top);
-        if (w < 0 || h < 0) return 0;
-        float area = w * h;
-        return area;
-    }
+    /** Upper bound on the boxes returned per frame, highest confidence first. */
+    private static final int MAX_DETECTIONS = 100;
 
-    protected float box_union(RectF a, RectF b) {
-        float i = box_intersection(a, b);
-        float u = (a.right - a.left) * (a.bottom - a.top) + (b.right - b.left) * (b.bottom - b.top) - i;
-        return u;
-    }
-
-    protected float overlap(float x1, float w1, float x2, float w2) {
-        float l1 = x1 - w1 / 2;
-        float l2 = x2 - w2 / 2;
-        float left = l1 > l2 ? l1 : l2;
-        float r1 = x1 + w1 / 2;
-        float r2 = x2 + w2 / 2;
-        float right = r1 < r2 ? r1 : r2;
-        return right - left;
-    }
+    private final NonMaxSuppression nms = new NonMaxSuppression(mNmsThresh, MAX_DETECTIONS);
 
     protected static final int BATCH_SIZE = 1;
     protected static final int PIXEL_SIZE = 3;
 
+    /**
+     * Builds the 256-entry channel lookup tables and the staging array for the model input. The
+     * tables hold exactly what the per-pixel arithmetic used to compute, so every input value is
+     * unchanged.
+     */
+    private void buildInputLookupTables() {
+        final int numValues = INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE;
+        if (isModelQuantized) {
+            byteLut = new byte[256];
+            for (int v = 0; v < 256; ++v) {
+                byteLut[v] = (byte) ((v - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point);
+            }
+            byteInput = new byte[numValues];
+        } else {
+            floatLut = new float[256];
+            for (int v = 0; v < 256; ++v) {
+                floatLut[v] = (v - IMAGE_MEAN) / IMAGE_STD;
+            }
+            floatInput = new float[numValues];
+            imgFloats = imgData.asFloatBuffer();
+        }
+    }
+
     /**
      * Writes Image data into a {@code ByteBuffer}.
      */
     protected ByteBuffer convertBitmapToByteBuffer(Bitmap bitmap) {
-//        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(4 * BATCH_SIZE * INPUT_SIZE * INPUT_SIZE * PIXEL_SIZE);
-//        byteBuffer.order(ByteOrder.nativeOrder());
-//        int[] intValues = new int[INPUT_SIZE * INPUT_SIZE];
         bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        int pixel = 0;
+        return convertPixelsToByteBuffer(intValues);
+    }
 
+    /**
+     * Writes INPUT_SIZE x INPUT_SIZE ARGB pixels into the model input. Channels are mapped through
+     * the lookup tables into a staging array, which is then copied into the buffer in one bulk put.
+     */
+    protected ByteBuffer convertPixelsToByteBuffer(int[] pixels) {
+        final int numPixels = INPUT_SIZE * INPUT_SIZE;
         imgData.rewind();
-        for (int i = 0; i < INPUT_SIZE; ++i) {
-            for (int j = 0; j < INPUT_SIZE; ++j) {
-                int pixelValue = intValues[i * INPUT_SIZE + j];
-                if (isModelQuantized) {
-                    // Quantized model
-                    imgData.put((byte) ((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) ((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                    imgData.put((byte) (((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD / inp_scale + inp_zero_point));
-                } else { // Float model
-                    imgData.putFloat((((pixelValue >> 16) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat((((pixelValue >> 8) & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                    imgData.putFloat(((pixelValue & 0xFF) - IMAGE_MEAN) / IMAGE_STD);
-                }
+        if (isModelQuantized) {
+            final byte[] lut = byteLut;
+            final byte[] dst = byteInput;
+            for (int i = 0, k = 0; i < numPixels; ++i, k += 3) {
+                final int pixelValue = pixels[i];
+                dst[k] = lut[(pixelValue >> 16) & 0xFF];
+                dst[k + 1] = lut[(pixelValue >> 8) & 0xFF];
+                dst[k + 2] = lut[pixelValue & 0xFF];
+            }
+            imgData.put(dst);
+            imgData.rewind();
+        } else {
+            final float[] lut = floatLut;
+            final float[] dst = floatInput;
+            for (int i = 0, k = 0; i < numPixels; ++i, k += 3) {
+                final int pixelValue = pixels[i];
+                dst[k] = lut[(pixelValue >> 16) & 0xFF];
+                dst[k + 1] = lut[(pixelValue >> 8) & 0xFF];
+                dst[k + 2] = lut[pixelValue & 0xFF];
             }
+            imgFloats.rewind();
+            imgFloats.put(dst);
         }
-
         return imgData;
     }
 
+    /**
+     * Loads INPUT_SIZE x INPUT_SIZE ARGB pixels that are already cropped and rotated, e.g. a level
+     * of the shared frame pyramid. Follow with {@link #recognizeLoadedInput()}.
+     */
+    public void loadPixelInput(int[] pixels) {
+        convertPixelsToByteBuffer(pixels);
+    }
+
     // TFLite 모델 생성 및 추론 결과 반환
     public ArrayList<Recognition> recognizeImage(Bitmap bitmap) {
-        ByteBuffer byteBuffer_ = convertBitmapToByteBuffer(bitmap);
-
-        Map<Integer, Object> outputMap = new HashMap<>();
-
-        outData.rewind();
-        outputMap.put(0, outData);
-
-        Object[] inputArray = {imgData};
-
-        tfLite.runForMultipleInputsOutputs(inputArray, outputMap); // 추론 실행
-
-        ByteBuffer byteBuffer = (ByteBuffer) outputMap.get(0);
-        byteBuffer.rewind();
-
-        ArrayList<Recognition> detections = new ArrayList<Recognition>();
-
-        float[][][] out = new float[1][output_box][numClass + 5];
-        //Log.d("YoloV5Classifier", "output shape =  " + output_box + ", " + (numClass + 5));
+        convertBitmapToByteBuffer(bitmap);
+        return recognizeLoadedInput();
+    }
 
-        for (int i = 0; i < output_box; ++i) {
-            for (int j = 0; j < numClass + 5; ++j) {
-                if (isModelQuantized){
-                    out[0][i][j] = oup_scale * (((int) byteBuffer.get() & 0xFF) - oup_zero_point);
-                }
-                else {
-                    out[0][i][j] = byteBuffer.getFloat();
-                }
-            }
-            // Denormalize xywh
-            for (int j = 0; j < 4; ++j) {
-                out[0][i][j] *= getInputSize();
+    /** Runs the model on the input already written to the input buffer and decodes the result. */
+    public ArrayList<Recognition> recognizeLoadedInput() {
+        if (headDecoder != null) {
+            for (ByteBuffer head : headData) {
+                head.rewind();
             }
+        } else {
+            outData.rewind();
         }
+        tfLite.runForMultipleInputsOutputs(inputArray, outputMap); // 추론 실행
 
-        for (int i = 0; i < output_box; ++i){
-            final int offset = 0;
-            final float confidence = out[0][i][4];
-            int detectedClass = -1;
-            float maxClass = 0;
-
-            final float[] classes = new float[labels.size()]; // 0~4는 Rect, 5~26은 각 class 확률
-            for (int c = 0; c < labels.size(); ++c) {
-                classes[c] = out[0][i][5 + c];
-            }
-
-            for (int c = 0; c < labels.size(); ++c) { // 가장 큰 확률을 가진 물체 판별
-                if (classes[c] > maxClass) {
-                    detectedClass = c; // max class 인덱스
-                    maxClass = classes[c]; // max class 확률
-                }
-            }
-
-            final float confidenceInClass = maxClass * confidence;
-
-            if (confidenceInClass > getObjThresh()) { // 임계값을 넘긴 물체가 선택됨
-                final float xPos = out[0][i][0]; // 0 : xPos
-                final float yPos = out[0][i][1]; // 1`: yPos
-
-                final float w = out[0][i][2];   // 2 : w
-                final float h = out[0][i][3];   // 3 : h
-                //Log.d("YoloV5Classifier",
-                //        Float.toString(xPos) + ',' + yPos + ',' + w + ',' + h);
-
-                final RectF rect =
-                        new RectF(
-                                Math.max(0, xPos - w / 2),
-                                Math.max(0, yPos - h / 2),
-                                Math.min(bitmap.getWidth() - 1, xPos + w / 2),
-                                Math.min(bitmap.getHeight() - 1, yPos + h / 2));
-                detections.add(new Recognition("" + offset, labels.get(detectedClass),
-                        confidenceInClass, rect, detectedClass));
-
-                //Log.d("YoloV5Classifier",
-                //        "maxClass = "+maxClass+", confidence = "+confidence+", confidenceInClass = "+confidenceInClass);
-            }
+        // Decode in place; only rows that beat the threshold are copied out.
+        candidates.clear();
+        final float maxX = INPUT_SIZE - 1;
+        final float maxY = INPUT_SIZE - 1;
+        if (headDecoder != null) {
+            headDecoder.decode(headFloats, maxX, maxY, candidates);
+        } else if (isModelQuantized) {
+            parallelDecoder.decode(outData, maxX, maxY, candidates);
+        } else {
+            parallelDecoder.decode(outFloats, getObjThresh(), maxX, maxY, candidates);
         }
 
+        // Class-aware NMS over the primitive candidates; Recognitions are only built for keepers.
+        final int kept = nms.run(candidates);
+        final int[] keep = nms.getKeep();
+        final ArrayList<Recognition> recognitions = new ArrayList<Recognition>(kept);
+        for (int k = 0; k < kept; ++k) {
+            final int i = keep[k];
+            final int detectedClass = candidates.getDetectedClass(i);
+            final RectF rect = new RectF(candidates.getLeft(i), candidates.getTop(i),
+                    candidates.getRight(i), candidates.getBottom(i));
+            recognitions.add(new Recognition(RECOGNITION_ID, labels.get(detectedClass),
+                    candidates.getScore(i), rect, detectedClass));
+        }
         Log.d("YoloV5Classifier", "detect end");
-        final ArrayList<Recognition> recognitions = nms(detections);
-//        final ArrayList<Recognition> recognitions = detections;
 
         return recognitions;
     }
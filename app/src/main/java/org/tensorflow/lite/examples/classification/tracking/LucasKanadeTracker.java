@@ -0,0 +1,396 @@
+package org.tensorflow.lite.examples.classification.tracking;
+
+import android.graphics.RectF;
+import java.util.Arrays;
+
+/**
+ * Carries boxes from one camera frame to the next with sparse pyramidal Lucas-Kanade optical flow
+ * on the luminance plane.
+ * <p>
+ * Every frame is reduced to a pyramid of luminance images, each half the size of the one below.
+ * A box is represented by a grid of points; each point is tracked coarse to fine from the previous
+ * frame to the current one, and then back again. Points that do not return to within
+ * {@code maxForwardBackwardError} pixels of where they started are dropped, and the box moves by
+ * the median displacement of the rest and scales by the median change of their pairwise distances.
+ * When too few points survive the box cannot be trusted and {@link #track} fails, which is the
+ * caller's cue to run the detector.
+ * <p>
+ * Coordinates are luminance pixels. An instance keeps the two latest frames and reuses its
+ * buffers, so it must only be used from one thread.
+ */
+public class LucasKanadeTracker {
+  /** Stop iterating once an update moves a point less than this, in pixels of the level. */
+  private static final float MIN_STEP = 0.01f;
+  /** Smallest determinant of the structure tensor of a trackable window. */
+  private static final float MIN_DETERMINANT = 1e-3f;
+
+  private final int width;
+  private final int height;
+  private final int numLevels;
+  private final int windowRadius;
+  private final int maxIterations;
+  private final float maxForwardBackwardError;
+  private final int gridSize;
+  private final float minValidFraction;
+
+  private final int[] levelWidths;
+  private final int[] levelHeights;
+  private float[][] previous;
+  private float[][] current;
+  private boolean hasPrevious;
+  private boolean hasCurrent;
+
+  // Scratch for one window: intensity and gradients of the template, and the warped target.
+  private final float[] templatePatch;
+  private final float[] templateI;
+  private final float[] templateIx;
+  private final float[] templateIy;
+  private final float[] targetPatch;
+  // Scratch for one box: start, forward and backward positions of every grid point.
+  private final float[] startX;
+  private final float[] startY;
+  private final float[] forwardX;
+  private final float[] forwardY;
+  private final float[] backX;
+  private final float[] backY;
+  private final boolean[] valid;
+  private final float[] sortScratch;
+  private float[] ratioScratch = new float[0];
+  private final float[] point = new float[2];
+
+  /**
+   * @param width                   luminance width.
+   * @param height                  luminance height.
+   * @param numLevels               pyramid levels, including the full-resolution one.
+   * @param windowRadius            half the edge of the matching window; the window is 2r+1 wide.
+   * @param maxIterations           most Gauss-Newton steps per point and level.
+   * @param maxForwardBackwardError largest distance, in pixels, between a point and its position
+   *                                after tracking it forward and back.
+   * @param gridSize                points per side of the grid laid over a box.
+   * @param minValidFraction        fraction of the grid points that must pass for a box to move.
+   */
+  public LucasKanadeTracker(int width, int height, int numLevels, int windowRadius,
+      int maxIterations, float maxForwardBackwardError, int gridSize, float minValidFraction) {
+    this.width = width;
+    this.height = height;
+    this.numLevels = Math.max(1, numLevels);
+    this.windowRadius = windowRadius;
+    this.maxIterations = maxIterations;
+    this.maxForwardBackwardError = maxForwardBackwardError;
+    this.gridSize = gridSize;
+    this.minValidFraction = minValidFraction;
+
+    levelWidths = new int[this.numLevels];
+    levelHeights = new int[this.numLevels];
+    previous = new float[this.numLevels][];
+    current = new float[this.numLevels][];
+    for (int level = 0; level < this.numLevels; ++level) {
+      levelWidths[level] = Math.max(1, width >> level);
+      levelHeights[level] = Math.max(1, height >> level);
+      previous[level] = new float[levelWidths[level] * levelHeights[level]];
+      current[level] = new float[levelWidths[level] * levelHeights[level]];
+    }
+
+    final int windowSize = 2 * windowRadius + 1;
+    final int windowArea = windowSize * windowSize;
+    templatePatch = new float[(windowSize + 2) * (windowSize + 2)];
+    templateI = new float[windowArea];
+    templateIx = new float[windowArea];
+    templateIy = new float[windowArea];
+    targetPatch = new float[windowArea];
+    final int numPoints = gridSize * gridSize;
+    startX = new float[numPoints];
+    startY = new float[numPoints];
+    forwardX = new float[numPoints];
+    forwardY = new float[numPoints];
+    backX = new float[numPoints];
+    backY = new float[numPoints];
+    valid = new boolean[numPoints];
+    sortScratch = new float[numPoints];
+  }
+
+  /**
+   * Makes {@code luminance} the current frame and the current one the previous.
+   *
+   * @param luminance Y plane of the frame, width x height.
+   * @param rowStride row stride of the Y plane.
+   */
+  public void setFrame(byte[] luminance, int rowStride) {
+    final float[][] swap = previous;
+    previous = current;
+    current = swap;
+    hasPrevious = hasCurrent;
+
+    final float[] base = current[0];
+    for (int y = 0, i = 0; y < height; ++y) {
+      final int row = y * rowStride;
+      for (int x = 0; x < width; ++x, ++i) {
+        base[i] = luminance[row + x] & 0xff;
+      }
+    }
+    for (int level = 1; level < numLevels; ++level) {
+      downsample(current[level - 1], levelWidths[level - 1], current[level],
+          levelWidths[level], levelHeights[level]);
+    }
+    hasCurrent = true;
+  }
+
+  /** Whether two frames have been set, so boxes can be tracked. */
+  public boolean hasPrevious() {
+    return hasPrevious;
+  }
+
+  /** Forgets the previous frame, e.g. after the frame size or orientation changed. */
+  public void reset() {
+    hasPrevious = false;
+    hasCurrent = false;
+  }
+
+  /**
+   * Moves a box from the previous frame to the current one.
+   *
+   * @param box where the box was in the previous frame.
+   * @param out receives where it is in the current frame; may be {@code box}.
+   * @return false if the box could not be tracked reliably; {@code out} is then unchanged.
+   */
+  public boolean track(RectF box, RectF out) {
+    if (!hasPrevious || box.width() <= 0 || box.height() <= 0) {
+      return false;
+    }
+    final int numPoints = gridSize * gridSize;
+    // Keep the grid a window away from the box edges, where the background shows.
+    final float marginX = Math.min(windowRadius, box.width() / 4);
+    final float marginY = Math.min(windowRadius, box.height() / 4);
+    final float stepX = (box.width() - 2 * marginX) / Math.max(1, gridSize - 1);
+    final float stepY = (box.height() - 2 * marginY) / Math.max(1, gridSize - 1);
+    for (int gy = 0, i = 0; gy < gridSize; ++gy) {
+      for (int gx = 0; gx < gridSize; ++gx, ++i) {
+        startX[i] = box.left + marginX + gx * stepX;
+        startY[i] = box.top + marginY + gy * stepY;
+      }
+    }
+
+    int numValid = 0;
+    for (int i = 0; i < numPoints; ++i) {
+      valid[i] = false;
+      if (!trackPoint(previous, current, startX[i], startY[i], point)) {
+        continue;
+      }
+      forwardX[i] = point[0];
+      forwardY[i] = point[1];
+      if (!trackPoint(current, previous, forwardX[i], forwardY[i], point)) {
+        continue;
+      }
+      backX[i] = point[0];
+      backY[i] = point[1];
+      final float ex = backX[i] - startX[i];
+      final float ey = backY[i] - startY[i];
+      if (ex * ex + ey * ey <= maxForwardBackwardError * maxForwardBackwardError) {
+        valid[i] = true;
+        ++numValid;
+      }
+    }
+    if (numValid < Math.max(2, minValidFraction * numPoints)) {
+      return false;
+    }
+
+    // Median displacement of the surviving points.
+    int n = 0;
+    for (int i = 0; i < numPoints; ++i) {
+      if (valid[i]) {
+        sortScratch[n++] = forwardX[i] - startX[i];
+      }
+    }
+    final float shiftX = median(sortScratch, n);
+    n = 0;
+    for (int i = 0; i < numPoints; ++i) {
+      if (valid[i]) {
+        sortScratch[n++] = forwardY[i] - startY[i];
+      }
+    }
+    final float shiftY = median(sortScratch, n);
+
+    // Median change of the distance between every pair of surviving points.
+    final int maxPairs = numValid * (numValid - 1) / 2;
+    if (ratioScratch.length < maxPairs) {
+      ratioScratch = new float[maxPairs];
+    }
+    int numRatios = 0;
+    for (int i = 0; i < numPoints; ++i) {
+      if (!valid[i]) {
+        continue;
+      }
+      for (int j = i + 1; j < numPoints; ++j) {
+        if (!valid[j]) {
+          continue;
+        }
+        final float before = distance(startX[i], startY[i], startX[j], startY[j]);
+        if (before > 0) {
+          ratioScratch[numRatios++] =
+              distance(forwardX[i], forwardY[i], forwardX[j], forwardY[j]) / before;
+        }
+      }
+    }
+    final float scale = numRatios > 0 ? median(ratioScratch, numRatios) : 1.0f;
+
+    final float centerX = box.centerX() + shiftX;
+    final float centerY = box.centerY() + shiftY;
+    final float halfWidth = box.width() * scale / 2;
+    final float halfHeight = box.height() * scale / 2;
+    out.set(centerX - halfWidth, centerY - halfHeight, centerX + halfWidth, centerY + halfHeight);
+    return true;
+  }
+
+  /**
+   * Tracks one point from {@code from} to {@code to}, coarse to fine.
+   *
+   * @return false if the point left the image or its window has too little texture.
+   */
+  private boolean trackPoint(float[][] from, float[][] to, float x, float y, float[] result) {
+    float guessX = 0;
+    float guessY = 0;
+    for (int level = numLevels - 1; level >= 0; --level) {
+      final float levelScale = 1.0f / (1 << level);
+      final float px = x * levelScale;
+      final float py = y * levelScale;
+      final int levelWidth = levelWidths[level];
+      final int levelHeight = levelHeights[level];
+      final float[] image = from[level];
+      final float[] target = to[level];
+
+      // Template and its structure tensor; gradients are central differences over a patch
+      // one pixel wider on every side than the window.
+      final int windowSize = 2 * windowRadius + 1;
+      final int paddedSize = windowSize + 2;
+      samplePatch(image, levelWidth, levelHeight,
+          px - windowRadius - 1, py - windowRadius - 1, paddedSize, templatePatch);
+      float gxx = 0;
+      float gxy = 0;
+      float gyy = 0;
+      for (int wy = 0, k = 0; wy < windowSize; ++wy) {
+        for (int wx = 0; wx < windowSize; ++wx, ++k) {
+          final int c = (wy + 1) * paddedSize + wx + 1;
+          final float ix = 0.5f * (templatePatch[c + 1] - templatePatch[c - 1]);
+          final float iy = 0.5f * (templatePatch[c + paddedSize] - templatePatch[c - paddedSize]);
+          templateI[k] = templatePatch[c];
+          templateIx[k] = ix;
+          templateIy[k] = iy;
+          gxx += ix * ix;
+          gxy += ix * iy;
+          gyy += iy * iy;
+        }
+      }
+      final float determinant = gxx * gyy - gxy * gxy;
+      if (determinant < MIN_DETERMINANT) {
+        return false;
+      }
+
+      // Gauss-Newton steps on the displacement at this level.
+      float vx = 0;
+      float vy = 0;
+      for (int iteration = 0; iteration < maxIterations; ++iteration) {
+        final float qx = px + guessX + vx;
+        final float qy = py + guessY + vy;
+        if (qx < 0 || qy < 0 || qx > levelWidth - 1 || qy > levelHeight - 1) {
+          return false;
+        }
+        samplePatch(target, levelWidth, levelHeight,
+            qx - windowRadius, qy - windowRadius, windowSize, targetPatch);
+        float bx = 0;
+        float by = 0;
+        for (int k = 0; k < targetPatch.length; ++k) {
+          final float difference = templateI[k] - targetPatch[k];
+          bx += difference * templateIx[k];
+          by += difference * templateIy[k];
+        }
+        final float stepX = (gyy * bx - gxy * by) / determinant;
+        final float stepY = (gxx * by - gxy * bx) / determinant;
+        vx += stepX;
+        vy += stepY;
+        if (stepX * stepX + stepY * stepY < MIN_STEP * MIN_STEP) {
+          break;
+        }
+      }
+      guessX += vx;
+      guessY += vy;
+      if (level > 0) {
+        guessX *= 2;
+        guessY *= 2;
+      }
+    }
+    result[0] = x + guessX;
+    result[1] = y + guessY;
+    return result[0] >= 0 && result[1] >= 0 && result[0] <= width - 1 && result[1] <= height - 1;
+  }
+
+  /**
+   * Fills {@code patch} with size x size bilinear samples at unit spacing from (x, y). Every sample
+   * shares the same fractional offset, so the weights are computed once; patches that reach past
+   * the image fall back to clamped samples.
+   */
+  private static void samplePatch(
+      float[] image, int width, int height, float x, float y, int size, float[] patch) {
+    final int x0 = (int) Math.floor(x);
+    final int y0 = (int) Math.floor(y);
+    if (x0 < 0 || y0 < 0 || x0 + size >= width || y0 + size >= height) {
+      for (int py = 0, k = 0; py < size; ++py) {
+        for (int px = 0; px < size; ++px, ++k) {
+          patch[k] = sample(image, width, height, x + px, y + py);
+        }
+      }
+      return;
+    }
+    final float fx = x - x0;
+    final float fy = y - y0;
+    final float w00 = (1 - fx) * (1 - fy);
+    final float w01 = fx * (1 - fy);
+    final float w10 = (1 - fx) * fy;
+    final float w11 = fx * fy;
+    for (int py = 0, k = 0; py < size; ++py) {
+      int i = (y0 + py) * width + x0;
+      for (int px = 0; px < size; ++px, ++k, ++i) {
+        patch[k] = w00 * image[i] + w01 * image[i + 1]
+            + w10 * image[i + width] + w11 * image[i + width + 1];
+      }
+    }
+  }
+
+  /** Bilinear sample, with coordinates clamped to the image. */
+  private static float sample(float[] image, int width, int height, float x, float y) {
+    final float cx = Math.max(0, Math.min(width - 1.001f, x));
+    final float cy = Math.max(0, Math.min(height - 1.001f, y));
+    final int x0 = (int) cx;
+    final int y0 = (int) cy;
+    final float fx = cx - x0;
+    final float fy = cy - y0;
+    final int i = y0 * width + x0;
+    final float top = image[i] + fx * (image[i + 1] - image[i]);
+    final float bottom = image[i + width] + fx * (image[i + width + 1] - image[i + width]);
+    return top + fy * (bottom - top);
+  }
+
+  /** 2x2 box filter into a level of half the size. */
+  private static void downsample(
+      float[] source, int sourceWidth, float[] target, int targetWidth, int targetHeight) {
+    for (int y = 0, i = 0; y < targetHeight; ++y) {
+      final int row = 2 * y * sourceWidth;
+      for (int x = 0; x < targetWidth; ++x, ++i) {
+        final int s = row + 2 * x;
+        target[i] =
+            0.25f * (source[s] + source[s + 1] + source[s + sourceWidth] + source[s + sourceWidth + 1]);
+      }
+    }
+  }
+
+  private static float distance(float x0, float y0, float x1, float y1) {
+    final float dx = x1 - x0;
+    final float dy = y1 - y0;
+    return (float) Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /** Median of the first {@code n} values; reorders them. */
+  private static float median(float[] values, int n) {
+    Arrays.sort(values, 0, n);
+    return (n & 1) == 1 ? values[n / 2] : 0.5f * (values[n / 2 - 1] + values[n / 2]);
+  }
+}
@@ -0,0 +1,123 @@
+package org.tensorflow.lite.examples.classification.tracking;
+
+/**
+ * Constant-velocity Kalman filter of a track's center.
+ * <p>
+ * The state is position and velocity per axis. The axes share the same motion model and are
+ * independent, so each keeps its own 2x2 covariance and the filter reduces to a few scalar updates.
+ * Velocity changes are modelled as white acceleration noise of spectral density
+ * {@code accelerationNoise}, so uncertainty grows with the time between detections; the position
+ * at any timestamp can be predicted without changing the filter.
+ * <p>
+ * Positions are in the caller's coordinates and times in milliseconds; velocities are per ms.
+ */
+public class MotionFilter {
+  private final float accelerationNoise;
+  private final float measurementNoise;
+  private final float initialVelocityVariance;
+
+  private long time;
+  private final Axis x = new Axis();
+  private final Axis y = new Axis();
+
+  /** Position, velocity and their covariance along one axis. */
+  private static class Axis {
+    float position;
+    float velocity;
+    /** Covariance: position, position-velocity, velocity. */
+    float pp;
+    float pv;
+    float vv;
+  }
+
+  /**
+   * @param accelerationNoise       spectral density of the acceleration noise, units^2 / ms^3.
+   * @param measurementNoise        variance of a measured position, units^2.
+   * @param initialVelocityVariance variance of the velocity of a new track, (units / ms)^2.
+   */
+  public MotionFilter(
+      float accelerationNoise, float measurementNoise, float initialVelocityVariance) {
+    this.accelerationNoise = accelerationNoise;
+    this.measurementNoise = measurementNoise;
+    this.initialVelocityVariance = initialVelocityVariance;
+  }
+
+  /** Starts the track at a measured position, at rest. */
+  public void reset(long time, float px, float py) {
+    this.time = time;
+    reset(x, px);
+    reset(y, py);
+  }
+
+  /** Advances the filter to {@code time} and corrects it with a measured position. */
+  public void update(long time, float px, float py) {
+    final float dt = Math.max(0, time - this.time);
+    predict(x, dt);
+    predict(y, dt);
+    correct(x, px);
+    correct(y, py);
+    this.time = Math.max(this.time, time);
+  }
+
+  /** Position along x expected at {@code time}; the filter itself is not changed. */
+  public float predictX(long time) {
+    return x.position + x.velocity * (time - this.time);
+  }
+
+  /** Position along y expected at {@code time}; the filter itself is not changed. */
+  public float predictY(long time) {
+    return y.position + y.velocity * (time - this.time);
+  }
+
+  public float getVelocityX() {
+    return x.velocity;
+  }
+
+  public float getVelocityY() {
+    return y.velocity;
+  }
+
+  /** Variance of the position along x at the last update. */
+  public float getVarianceX() {
+    return x.pp;
+  }
+
+  /** Variance of the position along y at the last update. */
+  public float getVarianceY() {
+    return y.pp;
+  }
+
+  /** Time of the last update. */
+  public long getTime() {
+    return time;
+  }
+
+  private void reset(Axis axis, float position) {
+    axis.position = position;
+    axis.velocity = 0;
+    axis.pp = measurementNoise;
+    axis.pv = 0;
+    axis.vv = initialVelocityVariance;
+  }
+
+  private void predict(Axis axis, float dt) {
+    final float q = accelerationNoise;
+    axis.position += axis.velocity * dt;
+    axis.pp += dt * (2 * axis.pv + dt * axis.vv) + q * dt * dt * dt / 3;
+    axis.pv += dt * axis.vv + q * dt * dt / 2;
+    axis.vv += q * dt;
+  }
+
+  private void correct(Axis axis, float measurement) {
+    final float s = axis.pp + measurementNoise;
+    final float kp = axis.pp / s;
+    final float kv = axis.pv / s;
+    final float innovation = measurement - axis.position;
+    axis.position += kp * innovation;
+    axis.velocity += kv * innovation;
+    // Covariance update for a position measurement, in the order that reads the old values.
+    axis.vv -= kv * axis.pv;
+    axis.pv -= kp * axis.pv;
+    axis.pp -= kp * axis.pp;
+  }
+}
@@ -31,6 +31,7 @@ import android.graphics.Paint.Cap;
 import android.graphics.Paint.Join;
 import android.graphics.Paint.Style;
 import android.graphics.RectF;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.Pair;
 import android.util.TypedValue;
@@ -46,6 +47,8 @@ import org.tensorflow.lite.examples.classification.tflite.Classifier_Yolo.Recogn
 public class MultiBoxTracker {
   private static final float TEXT_SIZE_DIP = 15;
   private static final float MIN_SIZE = 16.0f;
+  /** Boxes are moved along their track's velocity between results, for at most this long. */
+  private static final long MAX_EXTRAPOLATION_MS = 500;
   private static final int[] COLORS = {
           Color.BLUE,
           //Color.RED,
@@ -118,9 +121,14 @@ public class MultiBoxTracker {
     }
   }
 
-  public synchronized void trackResults(final List<Recognition> results, final long timestamp) {
+  /**
+   * @param timestamp frame number of the results.
+   * @param timeMs    uptime the result locations and velocities refer to.
+   */
+  public synchronized void trackResults(
+          final List<Recognition> results, final long timestamp, final long timeMs) {
     logger.i("Processing %d results from %d", results.size(), timestamp);
-    processResults(results);
+    processResults(results, timeMs);
   }
 
   private Matrix getFrameToCanvasMatrix() {
@@ -159,8 +167,12 @@ public class MultiBoxTracker {
 
 
 
+    final long now = SystemClock.uptimeMillis();
     for (final TrackedRecognition recognition : trackedObjects) {
+      // 다음 결과가 올 때까지 추적 필터의 속도로 박스를 옮긴다.
+      final long elapsed = Math.max(0, Math.min(MAX_EXTRAPOLATION_MS, now - recognition.timeMs));
       final RectF trackedPos = new RectF(recognition.location);
+      trackedPos.offset(recognition.velocityX * elapsed, recognition.velocityY * elapsed);
 
       getFrameToCanvasMatrix().mapRect(trackedPos);
       boxPaint.setColor(recognition.color);
@@ -225,7 +237,7 @@ public class MultiBoxTracker {
     }
   }
 
-  private void processResults(final List<Recognition> results) {
+  private void processResults(final List<Recognition> results, final long timeMs) {
     final List<Pair<Float, Recognition>> rectsToTrack = new LinkedList<Pair<Float, Recognition>>();
 
     screenRects.clear();
@@ -268,6 +280,9 @@ public class MultiBoxTracker {
       trackedRecognition.distance = potential.second.getDistance();
       trackedRecognition.dx = potential.second.getDx();
       trackedRecognition.dy = potential.second.getDy();
+      trackedRecognition.velocityX = potential.second.getVelocityX();
+      trackedRecognition.velocityY = potential.second.getVelocityY();
+      trackedRecognition.timeMs = timeMs;
       //trackedRecognition.title = "hello world!";
 //      trackedRecognition.color = COLORS[trackedObjects.size() % COLORS.length];
       trackedRecognition.color = COLORS[potential.second.getDetectedClass() % COLORS.length];
@@ -284,6 +299,8 @@ public class MultiBoxTracker {
     float detectionConfidence;
     float distance;
     float dx, dy;
+    float velocityX, velocityY;
+    long timeMs;
     int color;
     String title;
   }
@@ -0,0 +1,384 @@
+package org.tensorflow.lite.examples.classification.tracking;
+
+import android.graphics.RectF;
+import java.util.Arrays;
+
+/**
+ * Assigns detections to tracks with the lowest total cost, each used at most once.
+ * <p>
+ * A track and a detection may only be paired when they have the same class and their centers are
+ * within the track's gate radius: {@code gateScale} times the track box's larger edge, but at least
+ * {@code minGateRadius}. A gated pair costs (1 - IoU) + distance / radius, so overlap and proximity
+ * both count and every cost is below 2.
+ * <p>
+ * Detection centers are bucketed in a uniform grid, so a track only looks at the cells its gate
+ * touches. The gated pairs split into connected groups of tracks and detections that compete with
+ * each other; each group is solved exactly with the Hungarian algorithm. In a crowded scene the
+ * groups stay small, so the cost grows with the number of nearby pairs rather than with
+ * tracks x detections.
+ * <p>
+ * Scratch arrays are reused between calls, so an instance must only be used from one thread.
+ */
+public class TrackAssociator {
+  private final float gateScale;
+  private final float minGateRadius;
+  private final float cellSize;
+
+  // Grid of detection centers, CSR layout: cell c holds cellItems[cellStart[c] .. cellStart[c + 1]).
+  private int gridCols;
+  private int gridRows;
+  private float gridLeft;
+  private float gridTop;
+  private int[] cellStart = new int[0];
+  private int[] cellItems = new int[0];
+  private int[] detectionCell = new int[0];
+
+  // Gated pairs.
+  private int numEdges;
+  private int[] edgeTrack = new int[0];
+  private int[] edgeDetection = new int[0];
+  private float[] edgeCost = new float[0];
+
+  // Union-find over tracks (0 .. numTracks) followed by detections.
+  private int[] parent = new int[0];
+  private int[] groupOf = new int[0];
+  private int[] groupRows = new int[0];
+  private int[] groupCols = new int[0];
+  private int[] localIndex = new int[0];
+  /** Edges bucketed by group: group g owns groupEdges[groupEdgeStart[g] .. groupEdgeStart[g + 1]). */
+  private int[] groupEdgeStart = new int[0];
+  private int[] groupEdges = new int[0];
+
+  // Hungarian scratch, 1-based as in the textbook formulation.
+  private float[] cost = new float[0];
+  private float[] u = new float[0];
+  private float[] v = new float[0];
+  private float[] minv = new float[0];
+  private int[] p = new int[0];
+  private int[] way = new int[0];
+  private boolean[] used = new boolean[0];
+
+  /**
+   * @param gateScale     gate radius as a multiple of the track box's larger edge.
+   * @param minGateRadius smallest gate radius, in box coordinates.
+   * @param cellSize      edge of a grid cell, in box coordinates; about a typical gate radius.
+   */
+  public TrackAssociator(float gateScale, float minGateRadius, float cellSize) {
+    this.gateScale = gateScale;
+    this.minGateRadius = minGateRadius;
+    this.cellSize = cellSize;
+  }
+
+  /**
+   * @param trackBoxes       last boxes of the tracks.
+   * @param trackClasses     class names of the tracks.
+   * @param numTracks        number of tracks to use from the arrays.
+   * @param detectionBoxes   boxes of the new detections.
+   * @param detectionClasses class names of the detections.
+   * @param numDetections    number of detections to use from the arrays.
+   * @param assignment       receives, for every track, the index of its detection or -1.
+   * @return the number of tracks that were assigned a detection.
+   */
+  public int associate(RectF[] trackBoxes, String[] trackClasses, int numTracks,
+      RectF[] detectionBoxes, String[] detectionClasses, int numDetections, int[] assignment) {
+    Arrays.fill(assignment, 0, numTracks, -1);
+    if (numTracks == 0 || numDetections == 0) {
+      return 0;
+    }
+    buildGrid(detectionBoxes, numDetections);
+    collectEdges(trackBoxes, trackClasses, numTracks, detectionBoxes, detectionClasses);
+    if (numEdges == 0) {
+      return 0;
+    }
+    return solveGroups(numTracks, numDetections, assignment);
+  }
+
+  /** Buckets the detection centers with a counting sort. */
+  private void buildGrid(RectF[] boxes, int count) {
+    float left = Float.POSITIVE_INFINITY;
+    float top = Float.POSITIVE_INFINITY;
+    float right = Float.NEGATIVE_INFINITY;
+    float bottom = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < count; ++i) {
+      left = Math.min(left, boxes[i].centerX());
+      top = Math.min(top, boxes[i].centerY());
+      right = Math.max(right, boxes[i].centerX());
+      bottom = Math.max(bottom, boxes[i].centerY());
+    }
+    gridLeft = left;
+    gridTop = top;
+    gridCols = (int) ((right - left) / cellSize) + 1;
+    gridRows = (int) ((bottom - top) / cellSize) + 1;
+    final int numCells = gridCols * gridRows;
+    if (cellStart.length < numCells + 1) {
+      cellStart = new int[numCells + 1];
+    }
+    if (cellItems.length < count) {
+      cellItems = new int[count];
+      detectionCell = new int[count];
+    }
+
+    Arrays.fill(cellStart, 0, numCells + 1, 0);
+    for (int i = 0; i < count; ++i) {
+      final int col = (int) ((boxes[i].centerX() - gridLeft) / cellSize);
+      final int row = (int) ((boxes[i].centerY() - gridTop) / cellSize);
+      detectionCell[i] = row * gridCols + col;
+      cellStart[detectionCell[i]]++;
+    }
+    // Running totals make cellStart[c] the end of cell c; filling backwards moves it to the start.
+    for (int c = 1; c < numCells; ++c) {
+      cellStart[c] += cellStart[c - 1];
+    }
+    cellStart[numCells] = count;
+    for (int i = count - 1; i >= 0; --i) {
+      cellItems[--cellStart[detectionCell[i]]] = i;
+    }
+  }
+
+  /** Gated pairs of every track with the detections in the cells its gate touches. */
+  private void collectEdges(RectF[] trackBoxes, String[] trackClasses, int numTracks,
+      RectF[] detectionBoxes, String[] detectionClasses) {
+    numEdges = 0;
+    for (int t = 0; t < numTracks; ++t) {
+      final RectF track = trackBoxes[t];
+      final float radius =
+          Math.max(minGateRadius, gateScale * Math.max(track.width(), track.height()));
+      final float cx = track.centerX();
+      final float cy = track.centerY();
+      final int col0 = Math.max(0, (int) Math.floor((cx - radius - gridLeft) / cellSize));
+      final int col1 = Math.min(gridCols - 1, (int) Math.floor((cx + radius - gridLeft) / cellSize));
+      final int row0 = Math.max(0, (int) Math.floor((cy - radius - gridTop) / cellSize));
+      final int row1 = Math.min(gridRows - 1, (int) Math.floor((cy + radius - gridTop) / cellSize));
+      for (int row = row0; row <= row1; ++row) {
+        for (int col = col0; col <= col1; ++col) {
+          final int cell = row * gridCols + col;
+          for (int k = cellStart[cell]; k < cellStart[cell + 1]; ++k) {
+            final int d = cellItems[k];
+            if (!trackClasses[t].equals(detectionClasses[d])) {
+              continue;
+            }
+            final RectF detection = detectionBoxes[d];
+            final float ddx = detection.centerX() - cx;
+            final float ddy = detection.centerY() - cy;
+            final float distanceSquared = ddx * ddx + ddy * ddy;
+            if (distanceSquared > radius * radius) {
+              continue;
+            }
+            addEdge(t, d, 1 - iou(track, detection) + (float) Math.sqrt(distanceSquared) / radius);
+          }
+        }
+      }
+    }
+  }
+
+  private void addEdge(int track, int detection, float edgeValue) {
+    if (numEdges == edgeCost.length) {
+      final int capacity = Math.max(16, 2 * numEdges);
+      edgeTrack = Arrays.copyOf(edgeTrack, capacity);
+      edgeDetection = Arrays.copyOf(edgeDetection, capacity);
+      edgeCost = Arrays.copyOf(edgeCost, capacity);
+    }
+    edgeTrack[numEdges] = track;
+    edgeDetection[numEdges] = detection;
+    edgeCost[numEdges] = edgeValue;
+    ++numEdges;
+  }
+
+  /** Splits the gated pairs into connected groups and solves each one. */
+  private int solveGroups(int numTracks, int numDetections, int[] assignment) {
+    final int numNodes = numTracks + numDetections;
+    if (parent.length < numNodes) {
+      parent = new int[numNodes];
+      groupOf = new int[numNodes];
+      localIndex = new int[numNodes];
+      groupRows = new int[numNodes];
+      groupCols = new int[numNodes];
+    }
+    for (int i = 0; i < numNodes; ++i) {
+      parent[i] = i;
+    }
+    for (int e = 0; e < numEdges; ++e) {
+      union(edgeTrack[e], numTracks + edgeDetection[e]);
+    }
+
+    // Number the groups that have at least one pair, and every node inside its group.
+    Arrays.fill(groupOf, 0, numNodes, -1);
+    int numGroups = 0;
+    for (int e = 0; e < numEdges; ++e) {
+      final int root = find(edgeTrack[e]);
+      if (groupOf[root] < 0) {
+        groupOf[root] = numGroups;
+        groupRows[numGroups] = 0;
+        groupCols[numGroups] = 0;
+        ++numGroups;
+      }
+    }
+    for (int t = 0; t < numTracks; ++t) {
+      final int group = groupOf[find(t)];
+      if (group >= 0) {
+        localIndex[t] = groupRows[group]++;
+      }
+    }
+    for (int d = 0; d < numDetections; ++d) {
+      final int group = groupOf[find(numTracks + d)];
+      if (group >= 0) {
+        localIndex[numTracks + d] = groupCols[group]++;
+      }
+    }
+
+    if (groupEdgeStart.length < numGroups + 1) {
+      groupEdgeStart = new int[numGroups + 1];
+    }
+    if (groupEdges.length < numEdges) {
+      groupEdges = new int[edgeCost.length];
+    }
+    Arrays.fill(groupEdgeStart, 0, numGroups + 1, 0);
+    for (int e = 0; e < numEdges; ++e) {
+      groupEdgeStart[groupOf[find(edgeTrack[e])]]++;
+    }
+    for (int g = 1; g < numGroups; ++g) {
+      groupEdgeStart[g] += groupEdgeStart[g - 1];
+    }
+    groupEdgeStart[numGroups] = numEdges;
+    for (int e = numEdges - 1; e >= 0; --e) {
+      groupEdges[--groupEdgeStart[groupOf[find(edgeTrack[e])]]] = e;
+    }
+
+    int matched = 0;
+    for (int group = 0; group < numGroups; ++group) {
+      matched += solveGroup(group, numTracks, assignment);
+    }
+    return matched;
+  }
+
+  /** Builds the dense cost matrix of one group and runs the Hungarian algorithm on it. */
+  private int solveGroup(int group, int numTracks, int[] assignment) {
+    // The solver needs rows <= columns; transpose when the group has more tracks.
+    final boolean transposed = groupRows[group] > groupCols[group];
+    final int n = transposed ? groupCols[group] : groupRows[group];
+    final int m = transposed ? groupRows[group] : groupCols[group];
+    if (cost.length < (n + 1) * (m + 1)) {
+      cost = new float[(n + 1) * (m + 1)];
+    }
+    final int stride = m + 1;
+    // Pairs outside the gate cost more than any n gated pairs together (each is below 2), so the
+    // solver first maximizes the number of gated pairs; they never make it into the result.
+    final float forbidden = 2.0f * (n + 1);
+    Arrays.fill(cost, 0, (n + 1) * stride, forbidden);
+    final int first = groupEdgeStart[group];
+    final int last = groupEdgeStart[group + 1];
+    for (int k = first; k < last; ++k) {
+      final int e = groupEdges[k];
+      final int track = edgeTrack[e];
+      final int row = localIndex[track] + 1;
+      final int col = localIndex[numTracks + edgeDetection[e]] + 1;
+      if (transposed) {
+        cost[col * stride + row] = edgeCost[e];
+      } else {
+        cost[row * stride + col] = edgeCost[e];
+      }
+    }
+
+    hungarian(n, m);
+
+    // p[col] is the row assigned to each column; map the local pairs back through the edges.
+    int matched = 0;
+    for (int k = first; k < last; ++k) {
+      final int e = groupEdges[k];
+      final int track = edgeTrack[e];
+      final int trackLocal = localIndex[track] + 1;
+      final int detectionLocal = localIndex[numTracks + edgeDetection[e]] + 1;
+      final boolean assigned =
+          transposed ? p[trackLocal] == detectionLocal : p[detectionLocal] == trackLocal;
+      if (assigned) {
+        assignment[track] = edgeDetection[e];
+        ++matched;
+      }
+    }
+    return matched;
+  }
+
+  /**
+   * Minimum-cost assignment of every row 1..n to a distinct column 1..m (n <= m) of
+   * {@link #cost}, with potentials; afterwards p[col] is the row of each column, or 0.
+   */
+  private void hungarian(int n, int m) {
+    if (p.length < m + 1) {
+      u = new float[m + 1];
+      v = new float[m + 1];
+      minv = new float[m + 1];
+      p = new int[m + 1];
+      way = new int[m + 1];
+      used = new boolean[m + 1];
+    }
+    final int stride = m + 1;
+    Arrays.fill(u, 0, n + 1, 0);
+    Arrays.fill(v, 0, m + 1, 0);
+    Arrays.fill(p, 0, m + 1, 0);
+    for (int i = 1; i <= n; ++i) {
+      p[0] = i;
+      int j0 = 0;
+      Arrays.fill(minv, 0, m + 1, Float.POSITIVE_INFINITY);
+      Arrays.fill(used, 0, m + 1, false);
+      do {
+        used[j0] = true;
+        final int i0 = p[j0];
+        float delta = Float.POSITIVE_INFINITY;
+        int j1 = 0;
+        for (int j = 1; j <= m; ++j) {
+          if (!used[j]) {
+            final float reduced = cost[i0 * stride + j] - u[i0] - v[j];
+            if (reduced < minv[j]) {
+              minv[j] = reduced;
+              way[j] = j0;
+            }
+            if (minv[j] < delta) {
+              delta = minv[j];
+              j1 = j;
+            }
+          }
+        }
+        for (int j = 0; j <= m; ++j) {
+          if (used[j]) {
+            u[p[j]] += delta;
+            v[j] -= delta;
+          } else {
+            minv[j] -= delta;
+          }
+        }
+        j0 = j1;
+      } while (p[j0] != 0);
+      do {
+        final int j1 = way[j0];
+        p[j0] = p[j1];
+        j0 = j1;
+      } while (j0 != 0);
+    }
+  }
+
+  private int find(int i) {
+    while (parent[i] != i) {
+      parent[i] = parent[parent[i]];
+      i = parent[i];
+    }
+    return i;
+  }
+
+  private void union(int a, int b) {
+    final int ra = find(a);
+    final int rb = find(b);
+    if (ra != rb) {
+      parent[ra] = rb;
+    }
+  }
+
+  private static float iou(RectF a, RectF b) {
+    final float width = Math.min(a.right, b.right) - Math.max(a.left, b.left);
+    final float height = Math.min(a.bottom, b.bottom) - Math.max(a.top, b.top);
+    if (width <= 0 || height <= 0) {
+      return 0;
+    }
+    final float intersection = width * height;
+    return intersection / (a.width() * a.height() + b.width() * b.height() - intersection);
+  }
+}
@@ -0,0 +1,114 @@
+package org.tensorflow.lite.examples.classification.tracking;
+
+/**
+ * Recent samples of one track (time, position and depth) in fixed-capacity primitive rings.
+ * <p>
+ * Appending is O(1), evicting by age O(log n), and neither allocates, so a track can record every
+ * frame without boxing. Samples are indexed from 0, the oldest kept, to size() - 1, the newest. When the rings
+ * are full the oldest sample is overwritten; age-based eviction normally keeps them from filling.
+ */
+public class TrackHistory {
+  private final long[] times;
+  private final float[] xs;
+  private final float[] ys;
+  private final float[] depths;
+  private final int mask;
+  /** Ring index of the oldest sample. */
+  private int head;
+  private int size;
+
+  /** @param capacity most samples kept; rounded up to a power of two. */
+  public TrackHistory(int capacity) {
+    final int rounded = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    times = new long[rounded];
+    xs = new float[rounded];
+    ys = new float[rounded];
+    depths = new float[rounded];
+    mask = rounded - 1;
+  }
+
+  /** Appends a sample; times must not decrease. */
+  public void add(long time, float x, float y, float depth) {
+    if (size == times.length) {
+      head = (head + 1) & mask;
+      --size;
+    }
+    final int i = (head + size) & mask;
+    times[i] = time;
+    xs[i] = x;
+    ys[i] = y;
+    depths[i] = depth;
+    ++size;
+  }
+
+  /**
+   * Drops the samples taken at or before {@code cutoff}, but always keeps the newest one.
+   *
+   * @return false if the newest sample is that old too, i.e. the track has gone stale.
+   */
+  public boolean evictUntil(long cutoff) {
+    if (size == 0) {
+      return false;
+    }
+    final int evicted = Math.min(indexAtOrAfter(cutoff + 1), size - 1);
+    head = (head + evicted) & mask;
+    size -= evicted;
+    return times[head] > cutoff;
+  }
+
+  /**
+   * Index of the oldest sample taken at or after {@code time}, or size() if there is none; the
+   * samples from there to size() - 1 are the window since {@code time}, e.g. for a velocity
+   * estimate over it.
+   */
+  public int indexAtOrAfter(long time) {
+    // Times are sorted, so binary search over the logical indices.
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      final int mid = (lo + hi) >>> 1;
+      if (getTime(mid) < time) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public long getTime(int i) {
+    return times[(head + i) & mask];
+  }
+
+  public float getX(int i) {
+    return xs[(head + i) & mask];
+  }
+
+  public float getY(int i) {
+    return ys[(head + i) & mask];
+  }
+
+  public float getDepth(int i) {
+    return depths[(head + i) & mask];
+  }
+
+  public long getLastTime() {
+    return getTime(size - 1);
+  }
+
+  public float getLastX() {
+    return getX(size - 1);
+  }
+
+  public float getLastY() {
+    return getY(size - 1);
+  }
+
+  public float getLastDepth() {
+    return getDepth(size - 1);
+  }
+}
@@ -20,8 +20,6 @@ import android.util.Log;
 
 import java.io.IOException;
 import org.tensorflow.lite.examples.classification.tflite.Classifier_Midas.Device;
-import org.tensorflow.lite.support.common.TensorOperator;
-import org.tensorflow.lite.support.common.ops.NormalizeOp;
 
 /** This TensorFlowLite classifier works with the float EfficientNet model. */
 public class ClassifierFloatEfficientNet extends Classifier_Midas {
@@ -29,14 +27,6 @@ public class ClassifierFloatEfficientNet extends Classifier_Midas {
   private static final float IMAGE_MEAN = 115.0f;  //127.0f;
   private static final float IMAGE_STD = 58.0f;     //128.0f;
 
-  /**
-   * Float model does not need dequantization in the post-processing. Setting mean and std as 0.0f
-   * and 1.0f, repectively, to bypass the normalization.
-   */
-  private static final float PROBABILITY_MEAN = 0.0f;
-
-  private static final float PROBABILITY_STD = 1.0f;
-
   /**
    * Initializes a {@code ClassifierFloatMobileNet}.
    *
@@ -59,17 +49,12 @@ public class ClassifierFloatEfficientNet extends Classifier_Midas {
   }
 
   @Override
-  protected String getLabelPath() {
-    return "labels_without_background.txt";
-  }
-
-  @Override
-  protected TensorOperator getPreprocessNormalizeOp() {
-    return new NormalizeOp(IMAGE_MEAN, IMAGE_STD);
+  protected float getPreprocessMean() {
+    return IMAGE_MEAN;
   }
 
   @Override
-  protected TensorOperator getPostprocessNormalizeOp() {
-    return new NormalizeOp(PROBABILITY_MEAN, PROBABILITY_STD);
+  protected float getPreprocessStd() {
+    return IMAGE_STD;
   }
 }
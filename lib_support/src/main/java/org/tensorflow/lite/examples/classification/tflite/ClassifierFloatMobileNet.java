@@ -18,8 +18,6 @@ package org.tensorflow.lite.examples.classification.tflite;
 import android.app.Activity;
 import java.io.IOException;
 import org.tensorflow.lite.examples.classification.tflite.Classifier_Midas.Device;
-import org.tensorflow.lite.support.common.TensorOperator;
-import org.tensorflow.lite.support.common.ops.NormalizeOp;
 
 /** This TensorFlowLite classifier works with the float MobileNet model. */
 public class ClassifierFloatMobileNet extends Classifier_Midas {
@@ -29,14 +27,6 @@ public class ClassifierFloatMobileNet extends Classifier_Midas {
 
   private static final float IMAGE_STD = 127.5f;
 
-  /**
-   * Float model does not need dequantization in the post-processing. Setting mean and std as 0.0f
-   * and 1.0f, repectively, to bypass the normalization.
-   */
-  private static final float PROBABILITY_MEAN = 0.0f;
-
-  private static final float PROBABILITY_STD = 1.0f;
-
   /**
    * Initializes a {@code ClassifierFloatMobileNet}.
    *
@@ -56,17 +46,12 @@ public class ClassifierFloatMobileNet extends Classifier_Midas {
   }
 
   @Override
-  protected String getLabelPath() {
-    return "labels.txt";
-  }
-
-  @Override
-  protected TensorOperator getPreprocessNormalizeOp() {
-    return new NormalizeOp(IMAGE_MEAN, IMAGE_STD);
+  protected float getPreprocessMean() {
+    return IMAGE_MEAN;
   }
 
   @Override
-  protected TensorOperator getPostprocessNormalizeOp() {
-    return new NormalizeOp(PROBABILITY_MEAN, PROBABILITY_STD);
+  protected float getPreprocessStd() {
+    return IMAGE_STD;
   }
 }
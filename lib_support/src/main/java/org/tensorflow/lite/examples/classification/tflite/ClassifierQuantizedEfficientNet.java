@@ -17,8 +17,6 @@ package org.tensorflow.lite.examples.classification.tflite;
 
 import android.app.Activity;
 import java.io.IOException;
-import org.tensorflow.lite.support.common.TensorOperator;
-import org.tensorflow.lite.support.common.ops.NormalizeOp;
 
 /** This TensorFlow Lite classifier works with the quantized EfficientNet model. */
 public class ClassifierQuantizedEfficientNet extends Classifier_Midas {
@@ -31,11 +29,6 @@ public class ClassifierQuantizedEfficientNet extends Classifier_Midas {
 
   private static final float IMAGE_STD = 1.0f;
 
-  /** Quantized MobileNet requires additional dequantization to the output probability. */
-  private static final float PROBABILITY_MEAN = 0.0f;
-
-  private static final float PROBABILITY_STD = 255.0f;
-
   /**
    * Initializes a {@code ClassifierQuantizedMobileNet}.
    *
@@ -55,17 +48,12 @@ public class ClassifierQuantizedEfficientNet extends Classifier_Midas {
   }
 
   @Override
-  protected String getLabelPath() {
-    return "labels_without_background.txt";
-  }
-
-  @Override
-  protected TensorOperator getPreprocessNormalizeOp() {
-    return new NormalizeOp(IMAGE_MEAN, IMAGE_STD);
+  protected float getPreprocessMean() {
+    return IMAGE_MEAN;
   }
 
   @Override
-  protected TensorOperator getPostprocessNormalizeOp() {
-    return new NormalizeOp(PROBABILITY_MEAN, PROBABILITY_STD);
+  protected float getPreprocessStd() {
+    return IMAGE_STD;
   }
 }
@@ -0,0 +1,49 @@
+package org.tensorflow.lite.examples.classification.tflite;
+
+import android.app.Activity;
+import java.io.IOException;
+
+/**
+ * This TensorFlow Lite classifier works with the full-integer quantized MiDaS model.
+ *
+ * <p>The model is not shipped or downloaded with the app, so Quantized_MiDaS stays commented out
+ * of {@code tfe_ic_models} until {@code MidasModel_quant.tflite} is added to the app's assets. It
+ * is produced from the float MiDaS model with TFLite full-integer post-training quantization,
+ * with a representative dataset of camera frames and uint8 input and output types.
+ */
+public class ClassifierQuantizedMidas extends Classifier_Midas {
+
+  /**
+   * The input quantization of the model already maps raw pixels to MiDaS' normalized input, thus
+   * set mean as 0.0f, and std as 1.0f to bypass the normalization.
+   */
+  private static final float IMAGE_MEAN = 0.0f;
+
+  private static final float IMAGE_STD = 1.0f;
+
+  /**
+   * Initializes a {@code ClassifierQuantizedMidas}.
+   *
+   * @param activity
+   */
+  public ClassifierQuantizedMidas(Activity activity, Device device, int numThreads)
+      throws IOException {
+    super(activity, device, numThreads);
+  }
+
+  @Override
+  protected String getModelPath() {
+    // Not in the repository; see the class comment for how to produce it.
+    return "MidasModel_quant.tflite";
+  }
+
+  @Override
+  protected float getPreprocessMean() {
+    return IMAGE_MEAN;
+  }
+
+  @Override
+  protected float getPreprocessStd() {
+    return IMAGE_STD;
+  }
+}
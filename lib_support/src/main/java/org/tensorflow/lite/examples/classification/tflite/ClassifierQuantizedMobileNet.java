@@ -18,8 +18,6 @@ package org.tensorflow.lite.examples.classification.tflite;
 import android.app.Activity;
 import java.io.IOException;
 import org.tensorflow.lite.examples.classification.tflite.Classifier_Midas.Device;
-import org.tensorflow.lite.support.common.TensorOperator;
-import org.tensorflow.lite.support.common.ops.NormalizeOp;
 
 /** This TensorFlow Lite classifier works with the quantized MobileNet model. */
 public class ClassifierQuantizedMobileNet extends Classifier_Midas {
@@ -32,11 +30,6 @@ public class ClassifierQuantizedMobileNet extends Classifier_Midas {
 
   private static final float IMAGE_STD = 1.0f;
 
-  /** Quantized MobileNet requires additional dequantization to the output probability. */
-  private static final float PROBABILITY_MEAN = 0.0f;
-
-  private static final float PROBABILITY_STD = 255.0f;
-
   /**
    * Initializes a {@code ClassifierQuantizedMobileNet}.
    *
@@ -56,17 +49,12 @@ public class ClassifierQuantizedMobileNet extends Classifier_Midas {
   }
 
   @Override
-  protected String getLabelPath() {
-    return "labels.txt";
-  }
-
-  @Override
-  protected TensorOperator getPreprocessNormalizeOp() {
-    return new NormalizeOp(IMAGE_MEAN, IMAGE_STD);
+  protected float getPreprocessMean() {
+    return IMAGE_MEAN;
   }
 
   @Override
-  protected TensorOperator getPostprocessNormalizeOp() {
-    return new NormalizeOp(PROBABILITY_MEAN, PROBABILITY_STD);
+  protected float getPreprocessStd() {
+    return IMAGE_STD;
   }
 }
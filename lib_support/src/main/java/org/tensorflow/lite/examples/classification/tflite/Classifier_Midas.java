@@ -15,8 +15,6 @@ limitations under the License.
 
 package org.tensorflow.lite.examples.classification.tflite;
 
-import static java.lang.Math.min;
-
 import android.app.Activity;
 import android.graphics.Bitmap;
 import android.graphics.RectF;
@@ -27,27 +25,19 @@ import android.view.TextureView;
 import android.view.ViewStub;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Map;
-import java.util.PriorityQueue;
 import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
 import org.tensorflow.lite.examples.classification.tflite.Classifier_Midas.Device;
 import org.tensorflow.lite.gpu.GpuDelegate;
 import org.tensorflow.lite.nnapi.NnApiDelegate;
 import org.tensorflow.lite.support.common.FileUtil;
-import org.tensorflow.lite.support.common.TensorOperator;
-import org.tensorflow.lite.support.common.TensorProcessor;
 import org.tensorflow.lite.support.image.ImageProcessor;
 import org.tensorflow.lite.support.image.TensorImage;
-import org.tensorflow.lite.support.image.ops.ResizeOp;
-import org.tensorflow.lite.support.image.ops.ResizeOp.ResizeMethod;
-import org.tensorflow.lite.support.image.ops.ResizeWithCropOrPadOp;
-import org.tensorflow.lite.support.image.ops.Rot90Op;
-import org.tensorflow.lite.support.label.TensorLabel;
 import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
 /** A classifier specialized to label images using TensorFlow Lite. */
@@ -59,7 +49,8 @@ public abstract class Classifier_Midas {
     FLOAT_MOBILENET,
     QUANTIZED_MOBILENET,
     QUANTIZED_EFFICIENTNET,
-    FLOAT_EFFICIENTNET
+    FLOAT_EFFICIENTNET,
+    QUANTIZED_MIDAS
   }
 
   /** The runtime device type used for executing classification. */
@@ -70,9 +61,6 @@ public abstract class Classifier_Midas {
 
   }
 
-  /** Number of results to show in the UI. */
-  private static final int MAX_RESULTS = 3;
-
   /** The loaded TensorFlow Lite model. */
 
   /** Image size along the x axis. */
@@ -93,17 +81,71 @@ public abstract class Classifier_Midas {
   /** Options for configuring the Interpreter. */
   private final Interpreter.Options tfliteOptions = new Interpreter.Options();
 
-  /** Labels corresponding to the output of the vision model. */
-  private final List<String> labels;
-
   /** Input image TensorBuffer. */
   private TensorImage inputImageBuffer;
 
   /** Output probability TensorBuffer. */
   private final TensorBuffer outputProbabilityBuffer;
 
-  /** Processer to apply post processing of the output probability. */
-  private final TensorProcessor probabilityProcessor;
+  /**
+   * Two depth outputs used in turn by {@link #recognizeDepth}, so the interpreter can write one
+   * while the previous result is still being read. They hold floats, or uint8 values for quantized
+   * models.
+   */
+  private final ByteBuffer[] depthOutputs = new ByteBuffer[2];
+
+  /** Whether the interpreter writes floats, so it can run straight into {@link #depthOutputs}. */
+  private final boolean floatOutput;
+
+  /**
+   * Whether the interpreter writes uint8, which also runs straight into {@link #depthOutputs} and
+   * stays quantized: value = outputScale * (q - outputZeroPoint).
+   */
+  private final boolean quantizedOutput;
+  private final float outputScale;
+  private final int outputZeroPoint;
+
+  /** Preprocessing for {@link #recognizeDepth}, rebuilt only when the rotation changes. */
+  private ImageProcessor imageProcessor;
+  private int imageProcessorRotation;
+
+  /**
+   * Normalized value of every 8-bit channel for pixel input that is already model sized, as a
+   * float (float models) or a byte (uint8 models, whose normalization is the identity).
+   */
+  private final float[] floatLut;
+  private final byte[] byteLut;
+
+  /** Staging array for normalized pixel input, copied into the input buffer in one bulk put. */
+  private float[] floatStaging;
+  private byte[] byteStaging;
+
+  /** Input buffer for {@link #recognizeDepth(int[])}. */
+  private final ByteBuffer pixelInputBuffer;
+
+  /** Sequence number of the most recently started {@link #recognizeDepth} call. */
+  private volatile long depthSequence = -1;
+
+  /** The loaded model file, kept to create the crop-mode interpreter. */
+  private final MappedByteBuffer tfliteModel;
+
+  private final int numThreads;
+
+  /** Interpreter resized to a batch of square crops, or null when crop mode is off. */
+  private Interpreter cropTflite;
+
+  /** Edge of every crop fed to the crop-mode interpreter. */
+  private int cropInputSize;
+
+  /** Batch size the crop-mode interpreter is currently allocated for. */
+  private int cropBatchSize;
+
+  /** Batched crop input and its output. */
+  private ByteBuffer cropInputBuffer;
+  private TensorBuffer cropOutputBuffer;
+
+  /** Sequence number of the most recent {@link #recognizeCrops} call. */
+  private volatile long cropSequence = -1;
 
   /**
    * Creates a classifier with the provided configuration.
@@ -124,6 +166,8 @@ public abstract class Classifier_Midas {
       return new ClassifierFloatEfficientNet(activity, device, numThreads);
     } else if (model == Model.QUANTIZED_EFFICIENTNET) {
       return new ClassifierQuantizedEfficientNet(activity, device, numThreads);
+    } else if (model == Model.QUANTIZED_MIDAS) {
+      return new ClassifierQuantizedMidas(activity, device, numThreads);
     } else {
       throw new UnsupportedOperationException();
     }
@@ -202,14 +246,16 @@ public abstract class Classifier_Midas {
   /** Initializes a {@code Classifier}. */
   protected Classifier_Midas(Activity activity, Device device, int numThreads) throws IOException {
     // 모델 불러오기 시작
-    MappedByteBuffer tfliteModel = FileUtil.loadMappedFile(activity, getModelPath());
+    tfliteModel = FileUtil.loadMappedFile(activity, getModelPath());
+    this.numThreads = numThreads;
     switch (device) {
       case NNAPI:
         nnApiDelegate = new NnApiDelegate();
         tfliteOptions.addDelegate(nnApiDelegate);
         break;
       case GPU:
-        gpuDelegate = new GpuDelegate();
+        // Quantized models run on the GPU in float; their uint8 input and output stay as they are.
+        gpuDelegate = new GpuDelegate(new GpuDelegate.Options().setQuantizedModelsAllowed(true));
         tfliteOptions.addDelegate(gpuDelegate);
         break;
       case CPU:
@@ -221,9 +267,6 @@ public abstract class Classifier_Midas {
     tflite = new Interpreter(tfliteModel, tfliteOptions);
     //Log.d("Classifier","Model name - "+tfliteModel + ", getModelPath() = "+getModelPath());
 
-    // Loads labels out from the label file.
-    labels = FileUtil.loadLabels(activity, getLabelPath());
-
     // Reads type and shape of input and output tensors, respectively.
     int imageTensorIndex = 0;
     int[] imageShape = tflite.getInputTensor(imageTensorIndex).shape(); // {1, height, width, 3}
@@ -246,45 +289,332 @@ public abstract class Classifier_Midas {
     // Creates the output tensor and its processor.
     outputProbabilityBuffer = TensorBuffer.createFixedSize(probabilityShape, probabilityDataType);
 
-    // Creates the post processor for the output probability.
-    probabilityProcessor = new TensorProcessor.Builder().add(getPostprocessNormalizeOp()).build();
+    // Lookup tables for model-sized pixel input.
+    if (imageDataType == DataType.UINT8) {
+      if (getPreprocessMean() != 0.0f || getPreprocessStd() != 1.0f) {
+        throw new IllegalArgumentException("UINT8 input cannot be normalized");
+      }
+      floatLut = null;
+      byteLut = new byte[256];
+      for (int v = 0; v < 256; ++v) {
+        byteLut[v] = (byte) v;
+      }
+    } else {
+      byteLut = null;
+      floatLut = new float[256];
+      for (int v = 0; v < 256; ++v) {
+        floatLut[v] = (v - getPreprocessMean()) / getPreprocessStd();
+      }
+    }
+    pixelInputBuffer = ByteBuffer.allocateDirect(tflite.getInputTensor(imageTensorIndex).numBytes());
+    pixelInputBuffer.order(ByteOrder.nativeOrder());
+
+    // Double-buffered depth outputs, kept quantized for uint8 models.
+    floatOutput = probabilityDataType == DataType.FLOAT32;
+    quantizedOutput = probabilityDataType == DataType.UINT8;
+    final Tensor.QuantizationParams outputQuantization =
+        tflite.getOutputTensor(probabilityTensorIndex).quantizationParams();
+    // A uint8 output without quantization parameters holds the values themselves.
+    final boolean hasQuantization = quantizedOutput && outputQuantization.getScale() != 0.0f;
+    outputScale = hasQuantization ? outputQuantization.getScale() : 1.0f;
+    outputZeroPoint = hasQuantization ? outputQuantization.getZeroPoint() : 0;
+    final int bytesPerValue = quantizedOutput ? 1 : 4;
+    for (int i = 0; i < depthOutputs.length; ++i) {
+      depthOutputs[i] =
+          ByteBuffer.allocateDirect(outputProbabilityBuffer.getFlatSize() * bytesPerValue);
+      depthOutputs[i].order(ByteOrder.nativeOrder());
+    }
 
     Log.d(TAG, "Created a Tensorflow Lite Image Classifier.");
   }
 
-  /** Runs inference and returns the classification results. */
-  //public List<Recognition> recognizeImage(final Bitmap bitmap, int sensorOrientation) {
-  public float[] recognizeImage(final Bitmap bitmap, int sensorOrientation) {
-    // Logs this method so that it can be analyzed with systrace.
-    Trace.beginSection("recognizeImage");
+  /**
+   * A depth map written by {@link #recognizeDepth} or {@link #recognizeCrops}. The values are a
+   * read-only view of one of the classifier's output buffers: a {@link #recognizeDepth} result is
+   * written again by the second call after the one that produced it, a {@link #recognizeCrops}
+   * result by the next call; {@link #isValid} tells whether that has started yet.
+   *
+   * <p>Quantized models keep their uint8 output as it is, so readers can work on the codes and only
+   * dequantize the values they actually use.
+   */
+  public static class DepthOutput {
+    private final Classifier_Midas owner;
+    private final FloatBuffer values;
+    private final ByteBuffer quantizedValues;
+    private final float scale;
+    private final int zeroPoint;
+    private final long sequence;
+    private final boolean crops;
+
+    private DepthOutput(Classifier_Midas owner, FloatBuffer values, ByteBuffer quantizedValues,
+        long sequence, boolean crops) {
+      this.owner = owner;
+      this.values = values;
+      this.quantizedValues = quantizedValues;
+      this.scale = owner.outputScale;
+      this.zeroPoint = owner.outputZeroPoint;
+      this.sequence = sequence;
+      this.crops = crops;
+    }
+
+    /** Whether the values are uint8 codes, see {@link #getQuantizedValues}. */
+    public boolean isQuantized() {
+      return quantizedValues != null;
+    }
 
+    /**
+     * Row-major depth values, getImageSizeX() x getImageSizeY() of them, or the crops back to back.
+     *
+     * @throws IllegalStateException if the output is quantized.
+     */
+    public FloatBuffer getValues() {
+      if (values == null) {
+        throw new IllegalStateException("Depth output is quantized");
+      }
+      return values;
+    }
+
+    /**
+     * Row-major uint8 codes, laid out as {@link #getValues}; a code q stands for the depth
+     * getScale() * (q - getZeroPoint()).
+     *
+     * @throws IllegalStateException if the output is not quantized.
+     */
+    public ByteBuffer getQuantizedValues() {
+      if (quantizedValues == null) {
+        throw new IllegalStateException("Depth output is not quantized");
+      }
+      return quantizedValues;
+    }
+
+    public float getScale() {
+      return scale;
+    }
+
+    public int getZeroPoint() {
+      return zeroPoint;
+    }
+
+    /** Number of the call that produced this map, starting at 0. */
+    public long getSequence() {
+      return sequence;
+    }
+
+    /** Whether the buffer still holds this map. */
+    public boolean isValid() {
+      return crops
+          ? owner.cropSequence == sequence
+          : owner.depthSequence - sequence < 2;
+    }
+  }
+
+  /**
+   * Runs inference and returns the depth map without copying it. Inference alternates between two
+   * output buffers, so the result of one call can be read while the next call runs.
+   */
+  public DepthOutput recognizeDepth(final Bitmap bitmap, int sensorOrientation) {
+    // Logs this method so that it can be analyzed with systrace.
     Trace.beginSection("loadImage");
     long startTimeForLoadImage = SystemClock.uptimeMillis();
-    inputImageBuffer = loadImage(bitmap, sensorOrientation);
+    final TensorImage inputImage = loadImage(bitmap, sensorOrientation);
     long endTimeForLoadImage = SystemClock.uptimeMillis();
     Trace.endSection();
     Log.v(TAG, "Timecost to load the image: " + (endTimeForLoadImage - startTimeForLoadImage));
+    return runDepth(inputImage.getBuffer());
+  }
+
+  /**
+   * Like {@link #recognizeDepth(Bitmap, int)}, for an image that is already cropped, rotated and
+   * sized to getImageSizeX() x getImageSizeY(); only normalization is applied.
+   *
+   * @param pixels ARGB_8888 pixels, row-major.
+   */
+  public DepthOutput recognizeDepth(final int[] pixels) {
+    loadPixels(pixels, imageSizeX * imageSizeY, pixelInputBuffer);
+    return runDepth(pixelInputBuffer);
+  }
+
+  private DepthOutput runDepth(ByteBuffer input) {
+    final long sequence = depthSequence + 1;
+    depthSequence = sequence;
+    final ByteBuffer output = depthOutputs[(int) (sequence & 1)];
+    output.rewind();
+    if (floatOutput || quantizedOutput) {
+      runInference(input, output);
+    } else {
+      runInference(input, outputProbabilityBuffer.getBuffer().rewind());
+      output.asFloatBuffer().put(outputProbabilityBuffer.getFloatArray());
+    }
+    // run() leaves the position at the end of what it wrote.
+    output.rewind();
+    return wrapOutput(output, sequence, false);
+  }
+
+  private DepthOutput wrapOutput(ByteBuffer output, long sequence, boolean crops) {
+    return quantizedOutput
+        ? new DepthOutput(this, null, output.asReadOnlyBuffer(), sequence, crops)
+        : new DepthOutput(this, output.asFloatBuffer().asReadOnlyBuffer(), null, sequence, crops);
+  }
+
+  /** Runs inference and returns a dequantized copy of the depth map; see {@link #recognizeDepth}. */
+  public float[] recognizeImage(final Bitmap bitmap, int sensorOrientation) {
+    final DepthOutput output = recognizeDepth(bitmap, sensorOrientation);
+    if (output.isQuantized()) {
+      final ByteBuffer codes = output.getQuantizedValues();
+      final float[] img_array = new float[codes.remaining()];
+      for (int i = 0; i < img_array.length; ++i) {
+        img_array[i] = outputScale * ((codes.get(i) & 0xff) - outputZeroPoint);
+      }
+      return img_array;
+    }
+    final FloatBuffer values = output.getValues();
+    final float[] img_array = new float[values.remaining()];
+    values.get(img_array);
+    return img_array;
+  }
+
+  private void runInference(ByteBuffer input, ByteBuffer output) {
+    // Logs this method so that it can be analyzed with systrace.
+    Trace.beginSection("recognizeImage");
 
     // 추론 시작!!!
     // Runs the inference call.
     Trace.beginSection("runInference");
     long startTimeForReference = SystemClock.uptimeMillis();
-    tflite.run(inputImageBuffer.getBuffer(), outputProbabilityBuffer.getBuffer().rewind());
+    tflite.run(input, output);
     long endTimeForReference = SystemClock.uptimeMillis();
     Trace.endSection();
     Log.v(TAG, "Timecost to run model inference: " + (endTimeForReference - startTimeForReference));
 
-    float[] img_array = outputProbabilityBuffer.getFloatArray();
+    Trace.endSection();
+  }
+
+  /**
+   * Enables {@link #recognizeCrops}, which runs the model on a batch of square crops of
+   * {@code cropSize} pixels instead of one full-frame image. This needs a second interpreter with a
+   * resized input; it always runs on the CPU, since a delegate instance cannot be shared between
+   * interpreters.
+   *
+   * @return false if the model does not accept the resized input, in which case only
+   *     {@link #recognizeImage} can be used.
+   */
+  public boolean enableCropMode(int cropSize) {
+    if (cropTflite != null && cropInputSize == cropSize) {
+      return true;
+    }
+    disableCropMode();
+    if (!floatOutput && !quantizedOutput) {
+      Log.w(TAG, "Crop mode needs float or uint8 output");
+      return false;
+    }
+    try {
+      Interpreter.Options options = new Interpreter.Options();
+      options.setNumThreads(numThreads);
+      cropTflite = new Interpreter(tfliteModel, options);
+      cropInputSize = cropSize;
+      resizeCropBatch(1);
+      return true;
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      Log.w(TAG, "Model does not support crop mode: " + e.getMessage());
+      disableCropMode();
+      return false;
+    }
+  }
+
+  public boolean isCropModeEnabled() {
+    return cropTflite != null;
+  }
 
-    //Log.d("classifier","output size = "+img_array.length);
-    // Gets the map of label and probability.
-    //Map<String, Float> labeledProbability =
-    //    new TensorLabel(labels, probabilityProcessor.process(outputProbabilityBuffer))
-    //        .getMapWithFloatValue();
+  /** Edge in pixels of the depth map produced for every crop. */
+  public int getCropSize() {
+    return cropInputSize;
+  }
+
+  /**
+   * Runs depth inference on a batch of crops that are already upright and
+   * {@link #getCropSize()} pixels square; only normalization is applied.
+   *
+   * @param pixels   ARGB_8888 pixels of {@code numCrops} crops, row-major, back to back.
+   * @return {@code numCrops} row-major depth maps of getCropSize() x getCropSize(), back to back,
+   *     which the next call overwrites.
+   */
+  public DepthOutput recognizeCrops(final int[] pixels, int numCrops) {
+    if (cropTflite == null) {
+      throw new IllegalStateException("Crop mode is not enabled");
+    }
+    Trace.beginSection("recognizeCrops");
+    if (numCrops != cropBatchSize) {
+      resizeCropBatch(numCrops);
+    }
+
+    loadPixels(pixels, numCrops * cropInputSize * cropInputSize, cropInputBuffer);
+    final long sequence = cropSequence + 1;
+    cropSequence = sequence;
+
+    long startTimeForReference = SystemClock.uptimeMillis();
+    cropTflite.run(cropInputBuffer, cropOutputBuffer.getBuffer().rewind());
+    long endTimeForReference = SystemClock.uptimeMillis();
+    Log.v(
+        TAG,
+        "Timecost to run " + numCrops + " crops: " + (endTimeForReference - startTimeForReference));
     Trace.endSection();
+    final ByteBuffer output = cropOutputBuffer.getBuffer();
+    output.rewind();
+    return wrapOutput(output, sequence, true);
+  }
+
+  private void resizeCropBatch(int batchSize) {
+    cropTflite.resizeInput(0, new int[] {batchSize, cropInputSize, cropInputSize, 3});
+    cropTflite.allocateTensors();
+    cropBatchSize = batchSize;
+    cropInputBuffer = ByteBuffer.allocateDirect(cropTflite.getInputTensor(0).numBytes());
+    cropInputBuffer.order(ByteOrder.nativeOrder());
+    final Tensor output = cropTflite.getOutputTensor(0);
+    cropOutputBuffer = TensorBuffer.createFixedSize(output.shape(), output.dataType());
+  }
+
+  private void disableCropMode() {
+    if (cropTflite != null) {
+      cropTflite.close();
+      cropTflite = null;
+    }
+    cropBatchSize = 0;
+    cropInputBuffer = null;
+    cropOutputBuffer = null;
+  }
 
-    // Gets top-k results.
-    return img_array;//getTopKProbability(labeledProbability);
+  /** Normalizes {@code numPixels} ARGB pixels into {@code dst} through the input lookup table. */
+  private void loadPixels(int[] pixels, int numPixels, ByteBuffer dst) {
+    final int numValues = numPixels * 3;
+    dst.rewind();
+    if (floatLut != null) {
+      if (floatStaging == null || floatStaging.length < numValues) {
+        floatStaging = new float[numValues];
+      }
+      final float[] lut = floatLut;
+      final float[] staging = floatStaging;
+      for (int i = 0, k = 0; i < numPixels; ++i, k += 3) {
+        final int pixel = pixels[i];
+        staging[k] = lut[(pixel >> 16) & 0xff];
+        staging[k + 1] = lut[(pixel >> 8) & 0xff];
+        staging[k + 2] = lut[pixel & 0xff];
+      }
+      dst.asFloatBuffer().put(staging, 0, numValues);
+    } else {
+      if (byteStaging == null || byteStaging.length < numValues) {
+        byteStaging = new byte[numValues];
+      }
+      final byte[] lut = byteLut;
+      final byte[] staging = byteStaging;
+      for (int i = 0, k = 0; i < numPixels; ++i, k += 3) {
+        final int pixel = pixels[i];
+        staging[k] = lut[(pixel >> 16) & 0xff];
+        staging[k + 1] = lut[(pixel >> 8) & 0xff];
+        staging[k + 2] = lut[pixel & 0xff];
+      }
+      dst.put(staging, 0, numValues);
+      dst.rewind();
+    }
   }
 
   /** Closes the interpreter and model to release resources. */
@@ -293,6 +623,7 @@ public abstract class Classifier_Midas {
       tflite.close();
       tflite = null;
     }
+    disableCropMode();
     if (gpuDelegate != null) {
       gpuDelegate.close();
       gpuDelegate = null;
@@ -318,66 +649,39 @@ public abstract class Classifier_Midas {
     // Loads bitmap into a TensorImage.
     inputImageBuffer.load(bitmap);
 
-    // Creates processor for the TensorImage.
-    int cropSize = min(bitmap.getWidth(), bitmap.getHeight());
+    // Creates processor for the TensorImage; the fused operator caches its lookup table per
+    // source size, so only a rotation change needs a new one.
     int numRotation = sensorOrientation / 90;
-    // TODO(b/143564309): Fuse ops inside ImageProcessor.
-    ImageProcessor imageProcessor =
-        new ImageProcessor.Builder()
-            .add(new ResizeWithCropOrPadOp(cropSize, cropSize))
-            // TODO(b/169379396): investigate the impact of the resize algorithm on accuracy.
-            // To get the same inference results as lib_task_api, which is built on top of the Task
-            // Library, use ResizeMethod.BILINEAR.
-            .add(new ResizeOp(imageSizeX, imageSizeY, ResizeMethod.NEAREST_NEIGHBOR))
-            //.add(new ResizeOp(224, 224, ResizeMethod.NEAREST_NEIGHBOR))
-            .add(new Rot90Op(numRotation))
-            .add(getPreprocessNormalizeOp())
-            .build();
+    if (imageProcessor == null || imageProcessorRotation != numRotation) {
+      imageProcessor = createImageProcessor(imageSizeX, imageSizeY, numRotation);
+      imageProcessorRotation = numRotation;
+    }
     return imageProcessor.process(inputImageBuffer);
   }
 
-  /** Gets the top-k results. */
-  private static List<Recognition> getTopKProbability(Map<String, Float> labelProb) {
-    // Find the best classifications.
-    PriorityQueue<Recognition> pq =
-        new PriorityQueue<>(
-            MAX_RESULTS,
-            new Comparator<Recognition>() {
-              @Override
-              public int compare(Recognition lhs, Recognition rhs) {
-                // Intentionally reversed to put high confidence at the head of the queue.
-                return Float.compare(rhs.getConfidence(), lhs.getConfidence());
-              }
-            });
-
-    for (Map.Entry<String, Float> entry : labelProb.entrySet()) {
-      pq.add(new Recognition("" + entry.getKey(), entry.getKey(), entry.getValue(), null));
-    }
-
-    final ArrayList<Recognition> recognitions = new ArrayList<>();
-    int recognitionsSize = min(pq.size(), MAX_RESULTS);
-    for (int i = 0; i < recognitionsSize; ++i) {
-      recognitions.add(pq.poll());
-    }
-    return recognitions;
+  /**
+   * Center crop, nearest-neighbor resize, rotation and normalization fused into one operator.
+   * TODO(b/169379396): investigate the impact of the resize algorithm on accuracy.
+   */
+  private ImageProcessor createImageProcessor(int width, int height, int numRotation) {
+    return new ImageProcessor.Builder()
+        .add(
+            new FusedImageOperator(
+                width,
+                height,
+                numRotation,
+                getPreprocessMean(),
+                getPreprocessStd(),
+                tflite.getInputTensor(0).dataType()))
+        .build();
   }
 
   /** Gets the name of the model file stored in Assets. */
   protected abstract String getModelPath();
 
-  /** Gets the name of the label file stored in Assets. */
-  protected abstract String getLabelPath();
-
-  /** Gets the TensorOperator to nomalize the input image in preprocessing. */
-  protected abstract TensorOperator getPreprocessNormalizeOp();
+  /** Gets the mean subtracted from every input channel value in preprocessing. */
+  protected abstract float getPreprocessMean();
 
-  /**
-   * Gets the TensorOperator to dequantize the output probability in post processing.
-   *
-   * <p>For quantized model, we need de-quantize the prediction with NormalizeOp (as they are all
-   * essentially linear transformation). For float model, de-quantize is not required. But to
-   * uniform the API, de-quantize is added to float model too. Mean and std are set to 0.0f and
-   * 1.0f, respectively.
-   */
-  protected abstract TensorOperator getPostprocessNormalizeOp();
+  /** Gets the standard deviation every input channel value is divided by in preprocessing. */
+  protected abstract float getPreprocessStd();
 }
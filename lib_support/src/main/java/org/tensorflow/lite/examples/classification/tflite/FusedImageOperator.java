@@ -0,0 +1,194 @@
+package org.tensorflow.lite.examples.classification.tflite;
+
+import static java.lang.Math.min;
+
+import android.graphics.Bitmap;
+import android.graphics.PointF;
+import java.nio.ByteBuffer;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.support.image.ImageOperator;
+import org.tensorflow.lite.support.image.TensorImage;
+import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
+
+/**
+ * Center-crops, resizes, rotates and normalizes an image in a single pass.
+ *
+ * <p>The result is the same as chaining ResizeWithCropOrPadOp (to a square of the shorter edge),
+ * ResizeOp with NEAREST_NEIGHBOR, Rot90Op and NormalizeOp, but without the three intermediate
+ * images: for every output element the source pixel is looked up in a table that is built once per
+ * source size, normalization is a 256-entry lookup, and the result is written into a TensorImage
+ * that is reused by every call. The returned image is therefore only valid until the next call.
+ */
+public class FusedImageOperator implements ImageOperator {
+  private final int targetWidth;
+  private final int targetHeight;
+  private final int numRotation;
+  private final int outputWidth;
+  private final int outputHeight;
+  private final boolean floatOutput;
+
+  /** (v - mean) / std for every 8-bit channel value. */
+  private final float[] normalized = new float[256];
+
+  private final float[] floatValues;
+  private final byte[] byteValues;
+  private final TensorBuffer outputBuffer;
+  private final TensorImage outputImage;
+
+  /** Source size the lookup table was built for. */
+  private int sourceWidth = -1;
+  private int sourceHeight = -1;
+  private int cropSize;
+
+  /** Index into {@link #pixels} of the source pixel of every output pixel. */
+  private int[] sourceIndex;
+  /** Pixels of the center crop of the current source. */
+  private int[] pixels;
+
+  /**
+   * @param targetWidth width of the resized image, before rotation.
+   * @param targetHeight height of the resized image, before rotation.
+   * @param numRotation number of counter-clockwise quarter turns, as for Rot90Op.
+   * @param mean mean subtracted from every channel value.
+   * @param std standard deviation every channel value is divided by.
+   * @param dataType FLOAT32, or UINT8 when the normalization is the identity.
+   */
+  public FusedImageOperator(
+      int targetWidth, int targetHeight, int numRotation, float mean, float std, DataType dataType) {
+    this.targetWidth = targetWidth;
+    this.targetHeight = targetHeight;
+    this.numRotation = ((numRotation % 4) + 4) % 4;
+    outputWidth = this.numRotation % 2 == 0 ? targetWidth : targetHeight;
+    outputHeight = this.numRotation % 2 == 0 ? targetHeight : targetWidth;
+
+    if (dataType == DataType.UINT8) {
+      if (mean != 0.0f || std != 1.0f) {
+        throw new IllegalArgumentException("UINT8 input cannot be normalized");
+      }
+      floatOutput = false;
+    } else if (dataType == DataType.FLOAT32) {
+      floatOutput = true;
+    } else {
+      throw new IllegalArgumentException("Unsupported input type: " + dataType);
+    }
+    for (int v = 0; v < 256; ++v) {
+      normalized[v] = (v - mean) / std;
+    }
+
+    final int numValues = outputWidth * outputHeight * 3;
+    floatValues = floatOutput ? new float[numValues] : null;
+    byteValues = floatOutput ? null : new byte[numValues];
+    outputBuffer = TensorBuffer.createFixedSize(new int[] {outputHeight, outputWidth, 3}, dataType);
+    outputImage = new TensorImage(dataType);
+  }
+
+  @Override
+  public TensorImage apply(TensorImage image) {
+    final Bitmap bitmap = image.getBitmap();
+    final int width = bitmap.getWidth();
+    final int height = bitmap.getHeight();
+    if (width != sourceWidth || height != sourceHeight) {
+      buildLookup(width, height);
+    }
+    bitmap.getPixels(
+        pixels, 0, cropSize, (width - cropSize) / 2, (height - cropSize) / 2, cropSize, cropSize);
+
+    final ByteBuffer buffer = outputBuffer.getBuffer();
+    buffer.rewind();
+    if (floatOutput) {
+      for (int i = 0, j = 0; i < sourceIndex.length; ++i) {
+        final int pixel = pixels[sourceIndex[i]];
+        floatValues[j++] = normalized[(pixel >> 16) & 0xff];
+        floatValues[j++] = normalized[(pixel >> 8) & 0xff];
+        floatValues[j++] = normalized[pixel & 0xff];
+      }
+      buffer.asFloatBuffer().put(floatValues);
+    } else {
+      for (int i = 0, j = 0; i < sourceIndex.length; ++i) {
+        final int pixel = pixels[sourceIndex[i]];
+        byteValues[j++] = (byte) (pixel >> 16);
+        byteValues[j++] = (byte) (pixel >> 8);
+        byteValues[j++] = (byte) pixel;
+      }
+      buffer.put(byteValues);
+    }
+    buffer.rewind();
+    outputImage.load(outputBuffer);
+    return outputImage;
+  }
+
+  @Override
+  public int getOutputImageWidth(int inputImageHeight, int inputImageWidth) {
+    return outputWidth;
+  }
+
+  @Override
+  public int getOutputImageHeight(int inputImageHeight, int inputImageWidth) {
+    return outputHeight;
+  }
+
+  @Override
+  public PointF inverseTransform(PointF point, int inputImageHeight, int inputImageWidth) {
+    final float x;
+    final float y;
+    switch (numRotation) {
+      case 0:
+        x = point.x;
+        y = point.y;
+        break;
+      case 1:
+        x = targetWidth - point.y;
+        y = point.x;
+        break;
+      case 2:
+        x = targetWidth - point.x;
+        y = targetHeight - point.y;
+        break;
+      default:
+        x = point.y;
+        y = targetHeight - point.x;
+        break;
+    }
+    final int crop = min(inputImageWidth, inputImageHeight);
+    return new PointF(
+        x * crop / targetWidth + (inputImageWidth - crop) / 2,
+        y * crop / targetHeight + (inputImageHeight - crop) / 2);
+  }
+
+  /** Maps every output pixel to its nearest source pixel in the center crop. */
+  private void buildLookup(int width, int height) {
+    sourceWidth = width;
+    sourceHeight = height;
+    cropSize = min(width, height);
+    pixels = new int[cropSize * cropSize];
+    sourceIndex = new int[outputWidth * outputHeight];
+    for (int oy = 0, i = 0; oy < outputHeight; ++oy) {
+      for (int ox = 0; ox < outputWidth; ++ox, ++i) {
+        // Undo the rotation: Rot90Op turns the resized image counter-clockwise.
+        final int x;
+        final int y;
+        switch (numRotation) {
+          case 0:
+            x = ox;
+            y = oy;
+            break;
+          case 1:
+            x = targetWidth - 1 - oy;
+            y = ox;
+            break;
+          case 2:
+            x = targetWidth - 1 - ox;
+            y = targetHeight - 1 - oy;
+            break;
+          default:
+            x = oy;
+            y = targetHeight - 1 - ox;
+            break;
+        }
+        final int sx = min(cropSize - 1, (int) ((x + 0.5f) * cropSize / targetWidth));
+        final int sy = min(cropSize - 1, (int) ((y + 0.5f) * cropSize / targetHeight));
+        sourceIndex[i] = sy * cropSize + sx;
+      }
+    }
+  }
+}